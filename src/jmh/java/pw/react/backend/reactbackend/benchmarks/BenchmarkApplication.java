@@ -0,0 +1,80 @@
+package pw.react.backend.reactbackend.benchmarks;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import pw.react.backend.reactbackend.ReactBackendApplication;
+import pw.react.backend.reactbackend.services.LoginBloomFilter;
+import pw.react.backend.reactbackend.services.UserPrefixIndex;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Starts the application against a fresh in-memory H2 database and fills the users table.
+ */
+final class BenchmarkApplication {
+    private static final int SEED_BATCH = 10_000;
+
+    private BenchmarkApplication() {
+    }
+
+    /**
+     * @param properties passed as command line arguments, so they override the application's property files
+     */
+    static ConfigurableApplicationContext start(String... properties) {
+        return start(new Class<?>[0], properties);
+    }
+
+    /**
+     * @param sources additional configuration classes, for benchmark-only beans
+     */
+    static ConfigurableApplicationContext start(Class<?>[] sources, String... properties) {
+        String url = "jdbc:h2:mem:bench-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1";
+        List<String> args = new ArrayList<>(Arrays.asList(
+                "--server.port=0",
+                "--spring.main.banner-mode=off",
+                "--logging.level.root=WARN",
+                "--spring.datasource.url=" + url,
+                // The it profile's stand-in read replica must share the benchmark's database too.
+                "--users.datasource.replicas=" + url));
+        for (String property : properties) {
+            args.add("--" + property);
+        }
+
+        return new SpringApplicationBuilder(ReactBackendApplication.class)
+                .sources(sources)
+                .profiles("it")
+                .run(args.toArray(new String[0]));
+    }
+
+    /**
+     * Inserts users with ids 1..rows and logins user1..userN, then moves the id sequence past them and
+     * rebuilds the login filter and the prefix index, which do not see rows inserted behind the application's back.
+     */
+    static void seed(ConfigurableApplicationContext context, int rows) {
+        JdbcTemplate jdbc = context.getBean(JdbcTemplate.class);
+        String insert = "insert into users (id, login, first_name, last_name, date_of_birth, is_active, version) "
+                + "values (?, ?, ?, ?, ?, ?, 0)";
+        Date dateOfBirth = Date.valueOf(LocalDate.of(1990, 1, 1));
+        List<Object[]> batch = new ArrayList<>(SEED_BATCH);
+        for (int id = 1; id <= rows; id++) {
+            batch.add(new Object[]{id, login(id), "first" + id, "last" + id, dateOfBirth, id % 2 == 0});
+            if (batch.size() == SEED_BATCH || id == rows) {
+                jdbc.batchUpdate(insert, batch);
+                batch.clear();
+            }
+        }
+        jdbc.execute("alter sequence users_seq restart with " + (rows + 100));
+        context.getBean(LoginBloomFilter.class).rebuild();
+        context.getBean(UserPrefixIndex.class).rebuild();
+    }
+
+    static String login(int id) {
+        return "user" + id;
+    }
+}
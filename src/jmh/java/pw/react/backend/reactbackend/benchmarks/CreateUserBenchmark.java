@@ -0,0 +1,44 @@
+package pw.react.backend.reactbackend.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.ResponseEntity;
+import pw.react.backend.reactbackend.controllers.UsersController;
+import pw.react.backend.reactbackend.models.User;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * POST /users/ through the controller: a single insert guarded by the unique login index.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CreateUserBenchmark {
+    @Param({"100000"})
+    private int rows;
+
+    private ConfigurableApplicationContext context;
+    private UsersController controller;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        context = BenchmarkApplication.start();
+        BenchmarkApplication.seed(context, rows);
+        controller = context.getBean(UsersController.class);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public ResponseEntity<User> createUser() {
+        return controller.createUser(new User().setAllDetails("created" + next++, "first", "last", true));
+    }
+}
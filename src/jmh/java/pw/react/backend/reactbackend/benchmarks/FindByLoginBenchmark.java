@@ -0,0 +1,55 @@
+package pw.react.backend.reactbackend.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import pw.react.backend.reactbackend.models.User;
+import pw.react.backend.reactbackend.repositories.UsersRepository;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * UsersRepository.findByLogin with and without the unique login index. Hibernate caching is switched off
+ * so every call reaches the database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class FindByLoginBenchmark {
+    @Param({"100000"})
+    private int rows;
+
+    @Param({"true", "false"})
+    private boolean indexed;
+
+    private ConfigurableApplicationContext context;
+    private UsersRepository repository;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        context = BenchmarkApplication.start(
+                "spring.jpa.properties.hibernate.cache.use_second_level_cache=false",
+                "spring.jpa.properties.hibernate.cache.use_query_cache=false");
+        BenchmarkApplication.seed(context, rows);
+        if (!indexed) {
+            context.getBean(JdbcTemplate.class).execute("alter table users drop constraint " + User.LOGIN_CONSTRAINT);
+        }
+        repository = context.getBean(UsersRepository.class);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public Optional<User> findByLogin() {
+        next = next % rows + 1;
+        return repository.findByLogin(BenchmarkApplication.login(next));
+    }
+}
@@ -0,0 +1,71 @@
+package pw.react.backend.reactbackend.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.ResponseEntity;
+import pw.react.backend.reactbackend.controllers.UsersController;
+import pw.react.backend.reactbackend.models.UserView;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GET /users through the controller plus JSON encoding of the page. With keyset pagination the cost of
+ * the first and of a middle page should not depend on the number of rows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class GetUsersBenchmark {
+    @Param({"10", "1000", "100000", "1000000"})
+    private int rows;
+
+    private ConfigurableApplicationContext context;
+    private UsersController controller;
+    private ObjectMapper mapper;
+    private String middleCursor;
+
+    @Setup
+    public void setUp() {
+        context = BenchmarkApplication.start();
+        BenchmarkApplication.seed(context, rows);
+        controller = context.getBean(UsersController.class);
+        mapper = context.getBean(ObjectMapper.class);
+
+        int pageSize = controller.getUsers(null, null, null).getBody().size();
+        String cursor = null;
+        for (int skipped = 0; skipped < rows / 2; skipped += pageSize) {
+            String next = controller.getUsers(null, cursor, null).getHeaders()
+                    .getFirst(UsersController.NEXT_CURSOR_HEADER);
+            if (next == null) {
+                break;
+            }
+            cursor = next;
+        }
+        middleCursor = cursor;
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public byte[] firstPage() throws IOException {
+        return render(controller.getUsers(null, null, null));
+    }
+
+    @Benchmark
+    public byte[] middlePage() throws IOException {
+        return render(controller.getUsers(null, middleCursor, null));
+    }
+
+    private byte[] render(ResponseEntity<List<UserView>> response) throws IOException {
+        return mapper.writeValueAsBytes(response.getBody());
+    }
+}
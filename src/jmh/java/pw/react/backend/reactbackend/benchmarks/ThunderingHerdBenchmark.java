@@ -0,0 +1,75 @@
+package pw.react.backend.reactbackend.benchmarks;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import pw.react.backend.reactbackend.models.User;
+import pw.react.backend.reactbackend.services.UsersService;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Many threads reading the same few users through UsersService.findById with every cache switched off,
+ * with and without single-flight. Prints the number of queries per lookup after each iteration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Threads(32)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ThunderingHerdBenchmark {
+    @Param({"1000"})
+    private int rows;
+
+    @Param({"1", "16"})
+    private int hotUsers;
+
+    @Param({"true", "false"})
+    private boolean singleFlight;
+
+    private ConfigurableApplicationContext context;
+    private UsersService usersService;
+    private Statistics statistics;
+    private final LongAdder lookups = new LongAdder();
+
+    @Setup
+    public void setUp() {
+        context = BenchmarkApplication.start(
+                "spring.cache.type=none",
+                "spring.jpa.properties.hibernate.cache.use_second_level_cache=false",
+                "spring.jpa.properties.hibernate.cache.use_query_cache=false",
+                "users.single-flight.enabled=" + singleFlight);
+        BenchmarkApplication.seed(context, rows);
+        usersService = context.getBean(UsersService.class);
+        statistics = context.getBean(EntityManagerFactory.class).unwrap(SessionFactory.class).getStatistics();
+    }
+
+    @Setup(Level.Iteration)
+    public void resetCounts() {
+        statistics.clear();
+        lookups.reset();
+    }
+
+    @TearDown(Level.Iteration)
+    public void printQueriesPerLookup() {
+        System.out.printf("%n%d lookups, %.3f queries per lookup%n", lookups.sum(),
+                (double) statistics.getPrepareStatementCount() / Math.max(lookups.sum(), 1));
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public User findById() {
+        lookups.increment();
+        return usersService.findById(ThreadLocalRandom.current().nextInt(hotUsers) + 1);
+    }
+}
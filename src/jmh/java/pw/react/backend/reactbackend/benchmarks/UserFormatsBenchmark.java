@@ -0,0 +1,87 @@
+package pw.react.backend.reactbackend.benchmarks;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import pw.react.backend.reactbackend.models.User;
+import pw.react.backend.reactbackend.models.UserView;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Encoding a GET /users page and decoding a POST /users/batch body in each media type {@code UsersController}
+ * negotiates. Payload sizes, plain and gzip-compressed as sent with {@code server.compression}, are printed once
+ * per format during setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class UserFormatsBenchmark {
+    @Param({"json", "cbor", "smile"})
+    private String format;
+
+    @Param({"100"})
+    private int pageSize;
+
+    private ObjectWriter pageWriter;
+    private ObjectReader pageReader;
+    private List<UserView> page;
+    private byte[] encoded;
+
+    @Setup
+    public void setUp() throws IOException {
+        Jackson2ObjectMapperBuilder builder = Jackson2ObjectMapperBuilder.json().factory(factory(format));
+        pageWriter = builder.build().writerFor(new TypeReference<List<UserView>>() {
+        });
+        pageReader = builder.build().readerFor(new TypeReference<List<User>>() {
+        });
+
+        page = new ArrayList<>(pageSize);
+        for (int i = 1; i <= pageSize; i++) {
+            page.add(new UserView(i, "user" + i, "first" + i, "last" + i, LocalDate.of(1990, 1, 1), true));
+        }
+        encoded = pageWriter.writeValueAsBytes(page);
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(encoded);
+        }
+        System.out.printf("%n%s page of %d users: %d bytes, %d bytes gzipped%n",
+                format, pageSize, encoded.length, compressed.size());
+    }
+
+    @Benchmark
+    public byte[] encode() throws IOException {
+        return pageWriter.writeValueAsBytes(page);
+    }
+
+    @Benchmark
+    public List<User> decode() throws IOException {
+        return pageReader.readValue(encoded);
+    }
+
+    private static JsonFactory factory(String format) {
+        switch (format) {
+            case "cbor":
+                return new CBORFactory();
+            case "smile":
+                return new SmileFactory();
+            default:
+                return new JsonFactory();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package pw.react.backend.reactbackend.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.core.type.TypeReference;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import pw.react.backend.reactbackend.models.User;
+import pw.react.backend.reactbackend.models.UserView;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Jackson cost of a single user and of a full GET /users page, with the mapper configured as Spring Boot does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class UserJsonBenchmark {
+    private static final int PAGE = 100;
+
+    private ObjectWriter userWriter;
+    private ObjectReader userReader;
+    private ObjectWriter pageWriter;
+    private ObjectWriter viewPageWriter;
+    private ObjectReader pageReader;
+    private User user;
+    private List<User> page;
+    private List<UserView> viewPage;
+    private byte[] userJson;
+    private byte[] pageJson;
+
+    @Setup
+    public void setUp() throws IOException {
+        ObjectMapper mapper = Jackson2ObjectMapperBuilder.json().build();
+        userWriter = mapper.writerFor(User.class);
+        userReader = mapper.readerFor(User.class);
+        pageWriter = mapper.writerFor(new TypeReference<List<User>>() {
+        });
+        pageReader = mapper.readerFor(new TypeReference<List<User>>() {
+        });
+        viewPageWriter = mapper.writerFor(new TypeReference<List<UserView>>() {
+        });
+
+        page = new ArrayList<>(PAGE);
+        for (int i = 1; i <= PAGE; i++) {
+            User next = new User().setAllDetails("user" + i, "first" + i, "last" + i, LocalDate.of(1990, 1, 1), true);
+            next.setId(i);
+            page.add(next);
+        }
+        viewPage = page.stream().map(UserView::of).collect(Collectors.toList());
+        user = page.get(0);
+        userJson = userWriter.writeValueAsBytes(user);
+        pageJson = pageWriter.writeValueAsBytes(page);
+    }
+
+    @Benchmark
+    public byte[] serializeUser() throws IOException {
+        return userWriter.writeValueAsBytes(user);
+    }
+
+    @Benchmark
+    public User deserializeUser() throws IOException {
+        return userReader.readValue(userJson);
+    }
+
+    @Benchmark
+    public byte[] serializePage() throws IOException {
+        return pageWriter.writeValueAsBytes(page);
+    }
+
+    /**
+     * The same page as {@link UserView}s, written by {@code UserViewSerializer}.
+     */
+    @Benchmark
+    public byte[] serializeViewPage() throws IOException {
+        return viewPageWriter.writeValueAsBytes(viewPage);
+    }
+
+    @Benchmark
+    public List<User> deserializePage() throws IOException {
+        return pageReader.readValue(pageJson);
+    }
+}
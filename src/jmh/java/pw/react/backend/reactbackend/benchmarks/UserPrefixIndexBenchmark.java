@@ -0,0 +1,56 @@
+package pw.react.backend.reactbackend.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import pw.react.backend.reactbackend.models.UserView;
+import pw.react.backend.reactbackend.services.UserPrefixIndex;
+import pw.react.backend.reactbackend.services.UsersService;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A top-10 type-ahead query for a rotating set of prefixes, answered by {@link UserPrefixIndex} and by the SQL
+ * prefix search of GET /users/search. Run with {@code -prof gc}: the index should allocate nothing per query.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class UserPrefixIndexBenchmark {
+    private static final String[] PREFIXES = {"user1", "User42", "first9", "LAST123", "user99999", "nobody"};
+
+    @Param({"100000"})
+    private int rows;
+
+    private ConfigurableApplicationContext context;
+    private UserPrefixIndex index;
+    private UsersService usersService;
+    private final int[] ids = new int[10];
+    private int next;
+
+    @Setup
+    public void setUp() {
+        context = BenchmarkApplication.start();
+        BenchmarkApplication.seed(context, rows);
+        index = context.getBean(UserPrefixIndex.class);
+        usersService = context.getBean(UsersService.class);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public int index() {
+        return index.find(PREFIXES[next++ % PREFIXES.length], ids);
+    }
+
+    @Benchmark
+    public List<UserView> sql() {
+        return usersService.search(PREFIXES[next++ % PREFIXES.length], false, 0, ids.length);
+    }
+}
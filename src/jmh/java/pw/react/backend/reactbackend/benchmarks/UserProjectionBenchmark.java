@@ -0,0 +1,100 @@
+package pw.react.backend.reactbackend.benchmarks;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import pw.react.backend.reactbackend.models.User;
+import pw.react.backend.reactbackend.models.UserView;
+import pw.react.backend.reactbackend.repositories.UsersRepository;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One GET /users page read in a read-only transaction and rendered as JSON, once as managed {@link User}
+ * entities serialized through bean introspection and once as constructor-projected views written by
+ * {@code UserViewSerializer}. Run with {@code -prof gc} for allocations per page ({@code gc.alloc.rate.norm}).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class UserProjectionBenchmark {
+    private static final String ENTITY_PAGE = "select u from User u where u.id > :afterId order by u.id";
+    private static final String VIEW_PAGE = "select new pw.react.backend.reactbackend.models.UserView("
+            + "u.id, u.login, u.firstName, u.lastName, u.dateOfBirth, u.isActive) "
+            + "from User u where u.id > :afterId order by u.id";
+
+    @Param({"100000"})
+    private int rows;
+
+    @Param({"100"})
+    private int pageSize;
+
+    private ConfigurableApplicationContext context;
+    private UsersRepository usersRepository;
+    private EntityManager entityManager;
+    private TransactionTemplate readOnly;
+    private ObjectMapper mapper;
+    private int afterId;
+
+    @Setup
+    public void setUp() {
+        context = BenchmarkApplication.start();
+        BenchmarkApplication.seed(context, rows);
+        usersRepository = context.getBean(UsersRepository.class);
+        entityManager = SharedEntityManagerCreator.createSharedEntityManager(
+                context.getBean(EntityManagerFactory.class));
+        readOnly = new TransactionTemplate(context.getBean(PlatformTransactionManager.class));
+        readOnly.setReadOnly(true);
+        mapper = context.getBean(ObjectMapper.class);
+        afterId = rows / 2;
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public byte[] entities() {
+        return readOnly.execute(status -> render(entityManager.createQuery(ENTITY_PAGE, User.class)
+                .setParameter("afterId", afterId)
+                .setMaxResults(pageSize)
+                .getResultList()));
+    }
+
+    /**
+     * The query of {@code UsersRepository.findViewsAfter}, run the same way as the entity query.
+     */
+    @Benchmark
+    public byte[] views() {
+        return readOnly.execute(status -> render(entityManager.createQuery(VIEW_PAGE, UserView.class)
+                .setParameter("afterId", afterId)
+                .setMaxResults(pageSize)
+                .getResultList()));
+    }
+
+    @Benchmark
+    public byte[] viewsThroughRepository() {
+        return readOnly.execute(status -> render(usersRepository.findViewsAfter(afterId,
+                PageRequest.of(0, pageSize))));
+    }
+
+    private byte[] render(List<?> page) {
+        try {
+            return mapper.writeValueAsBytes(page);
+        } catch (JsonProcessingException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
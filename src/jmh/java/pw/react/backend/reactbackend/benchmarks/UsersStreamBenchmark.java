@@ -0,0 +1,95 @@
+package pw.react.backend.reactbackend.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import pw.react.backend.reactbackend.controllers.UsersController;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Many HTTP clients reading the whole users table from a server with few Tomcat threads, either page by page
+ * as application/json, where each page holds a Tomcat thread until it is written, or as one
+ * application/stream+json response from the reactive profile, which releases the Tomcat thread right away.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(64)
+@Fork(1)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+public class UsersStreamBenchmark {
+    private static final String AUTHORIZATION = "Basic "
+            + Base64.getEncoder().encodeToString("john123:pass".getBytes(StandardCharsets.UTF_8));
+
+    @Param({"10000"})
+    private int rows;
+
+    @Param({"8"})
+    private int tomcatThreads;
+
+    private ConfigurableApplicationContext context;
+    private String users;
+
+    @Setup
+    public void setUp() {
+        context = BenchmarkApplication.start(
+                "spring.profiles.include=reactive",
+                "server.tomcat.max-threads=" + tomcatThreads);
+        BenchmarkApplication.seed(context, rows);
+        users = "http://localhost:" + context.getEnvironment().getProperty("local.server.port") + "/users";
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public long pages() throws IOException {
+        long bytes = 0;
+        String cursor = null;
+        do {
+            HttpURLConnection connection = open(cursor == null ? users : users + "?cursor=" + cursor,
+                    "application/json");
+            bytes += drain(connection);
+            cursor = connection.getHeaderField(UsersController.NEXT_CURSOR_HEADER);
+        } while (cursor != null);
+
+        return bytes;
+    }
+
+    @Benchmark
+    public long stream() throws IOException {
+        return drain(open(users, "application/stream+json"));
+    }
+
+    private static HttpURLConnection open(String url, String accept) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestProperty("Accept", accept);
+        connection.setRequestProperty("Authorization", AUTHORIZATION);
+        if (connection.getResponseCode() != 200) {
+            throw new IOException(url + " answered " + connection.getResponseCode());
+        }
+
+        return connection;
+    }
+
+    private static long drain(HttpURLConnection connection) throws IOException {
+        long bytes = 0;
+        byte[] buffer = new byte[8192];
+        try (InputStream in = connection.getInputStream()) {
+            for (int read; (read = in.read(buffer)) != -1; ) {
+                bytes += read;
+            }
+        }
+
+        return bytes;
+    }
+}
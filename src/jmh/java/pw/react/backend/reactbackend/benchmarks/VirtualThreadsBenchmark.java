@@ -0,0 +1,123 @@
+package pw.react.backend.reactbackend.benchmarks;
+
+import net.ttddyy.dsproxy.ExecutionInfo;
+import net.ttddyy.dsproxy.QueryInfo;
+import net.ttddyy.dsproxy.listener.QueryExecutionListener;
+import net.ttddyy.dsproxy.support.ProxyDataSourceBuilder;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Many HTTP clients calling GET /users/{id} with every cache switched off and each statement delayed by
+ * {@code dbLatencyMs}, served either by Tomcat's thread pool or by the virtual-threads profile. Run it with
+ * {@code -bm thrpt} or {@code -bm sample} to get throughput or the latency percentiles, p99 included.
+ * The virtual-threads runs need JDK 21 or later; on older JDKs that profile fails to start.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Threads(256)
+@Fork(value = 1, jvmArgsAppend = "-Dhttp.maxConnections=256")
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+public class VirtualThreadsBenchmark {
+    private static final String AUTHORIZATION = "Basic "
+            + Base64.getEncoder().encodeToString("john123:pass".getBytes(StandardCharsets.UTF_8));
+
+    @Param({"1000"})
+    private int rows;
+
+    @Param({"5"})
+    private int dbLatencyMs;
+
+    @Param({"platform", "virtual-threads"})
+    private String threads;
+
+    private ConfigurableApplicationContext context;
+    private String users;
+
+    @Setup
+    public void setUp() {
+        context = BenchmarkApplication.start(new Class<?>[]{SimulatedDatabaseLatency.class},
+                "spring.profiles.include=" + ("platform".equals(threads) ? "it" : threads),
+                "users.bench.db-latency-ms=" + dbLatencyMs,
+                "spring.cache.type=none",
+                "spring.jpa.properties.hibernate.cache.use_second_level_cache=false",
+                "spring.jpa.properties.hibernate.cache.use_query_cache=false");
+        BenchmarkApplication.seed(context, rows);
+        users = "http://localhost:" + context.getEnvironment().getProperty("local.server.port") + "/users/";
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public int getUser() throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(
+                users + (1 + ThreadLocalRandom.current().nextInt(rows))).openConnection();
+        connection.setRequestProperty("Authorization", AUTHORIZATION);
+        if (connection.getResponseCode() != 200) {
+            throw new IOException("GET /users answered " + connection.getResponseCode());
+        }
+
+        int bytes = 0;
+        byte[] buffer = new byte[1024];
+        try (InputStream in = connection.getInputStream()) {
+            for (int read; (read = in.read(buffer)) != -1; ) {
+                bytes += read;
+            }
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Holds the connection for {@code users.bench.db-latency-ms} before every statement, as a remote database
+     * would.
+     */
+    static class SimulatedDatabaseLatency {
+        @Bean
+        static BeanPostProcessor simulatedDatabaseLatency(
+                @Value("${users.bench.db-latency-ms}") long latencyMs) {
+            QueryExecutionListener delay = new QueryExecutionListener() {
+                @Override
+                public void beforeQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+                    try {
+                        Thread.sleep(latencyMs);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+
+                @Override
+                public void afterQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+                }
+            };
+
+            return new BeanPostProcessor() {
+                @Override
+                public Object postProcessAfterInitialization(Object bean, String beanName) {
+                    return bean instanceof DataSource
+                            ? ProxyDataSourceBuilder.create((DataSource) bean).listener(delay).build()
+                            : bean;
+                }
+            };
+        }
+    }
+}
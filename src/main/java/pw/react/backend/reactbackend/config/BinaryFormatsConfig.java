@@ -0,0 +1,44 @@
+package pw.react.backend.reactbackend.config;
+
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.List;
+
+/**
+ * Lets clients exchange users as CBOR ({@code application/cbor}) or Smile ({@code application/x-jackson-smile})
+ * instead of JSON, chosen by {@code Accept} and {@code Content-Type}. Both mappers come from the same builder as
+ * the JSON one, so field names, dates and serializers such as {@code UserViewSerializer} are identical across
+ * formats.
+ * <p>
+ * Spring MVC registers its own CBOR and Smile converters, with plain mappers that write dates as arrays, whenever
+ * the formats are on the classpath. They are replaced in place, behind the JSON converter, so requests without an
+ * {@code Accept} header, or with {@code *}{@code /*}, still get JSON.
+ */
+@Configuration
+public class BinaryFormatsConfig implements WebMvcConfigurer {
+    private final Jackson2ObjectMapperBuilder mapperBuilder;
+
+    @Autowired
+    public BinaryFormatsConfig(Jackson2ObjectMapperBuilder mapperBuilder) {
+        this.mapperBuilder = mapperBuilder;
+    }
+
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        HttpMessageConverter<?> cbor = new MappingJackson2CborHttpMessageConverter(
+                mapperBuilder.createXmlMapper(false).factory(new CBORFactory()).build());
+        HttpMessageConverter<?> smile = new MappingJackson2SmileHttpMessageConverter(
+                mapperBuilder.createXmlMapper(false).factory(new SmileFactory()).build());
+        converters.replaceAll(converter -> converter instanceof MappingJackson2CborHttpMessageConverter ? cbor
+                : converter instanceof MappingJackson2SmileHttpMessageConverter ? smile
+                : converter);
+    }
+}
@@ -0,0 +1,110 @@
+package pw.react.backend.reactbackend.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.jdbc.datasource.ConnectionProxy;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Lets at most {@code permits} connections be open at once across every {@link #wrap wrapped} data source.
+ * Further callers wait in arrival order for up to {@code timeout}. Without a bounded thread pool in front of
+ * the service there is nothing else keeping the number of concurrent statements down to what the database
+ * was sized for.
+ */
+public class ConnectionLimiter implements MeterBinder {
+    private final Semaphore permits;
+    private final int maxConnections;
+    private final Duration timeout;
+
+    public ConnectionLimiter(int maxConnections, Duration timeout) {
+        this.permits = new Semaphore(maxConnections, true);
+        this.maxConnections = maxConnections;
+        this.timeout = timeout;
+    }
+
+    public DataSource wrap(DataSource dataSource) {
+        return dataSource instanceof LimitedDataSource ? dataSource : new LimitedDataSource(dataSource);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("users.datasource.permits.available", permits, Semaphore::availablePermits)
+                .description("Connections that may still be opened before callers have to wait")
+                .register(registry);
+        Gauge.builder("users.datasource.permits.waiting", permits, Semaphore::getQueueLength)
+                .description("Callers waiting for a connection")
+                .register(registry);
+    }
+
+    Connection acquire(DataSource dataSource) throws SQLException {
+        try {
+            if (!permits.tryAcquire(timeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                throw new SQLTransientConnectionException("No connection available within " + timeout.toMillis()
+                        + " ms; all " + maxConnections + " are in use");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SQLTransientConnectionException("Interrupted while waiting for a connection", ex);
+        }
+
+        try {
+            return releasingOnClose(dataSource.getConnection());
+        } catch (SQLException | RuntimeException ex) {
+            permits.release();
+            throw ex;
+        }
+    }
+
+    private Connection releasingOnClose(Connection target) {
+        AtomicBoolean released = new AtomicBoolean();
+        return (Connection) Proxy.newProxyInstance(ConnectionProxy.class.getClassLoader(),
+                new Class<?>[]{ConnectionProxy.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getTargetConnection":
+                            return target;
+                        case "equals":
+                            return proxy == args[0];
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "close":
+                            if (released.compareAndSet(false, true)) {
+                                try {
+                                    target.close();
+                                } finally {
+                                    permits.release();
+                                }
+                            }
+                            return null;
+                        default:
+                            try {
+                                return method.invoke(target, args);
+                            } catch (InvocationTargetException ex) {
+                                throw ex.getTargetException();
+                            }
+                    }
+                });
+    }
+
+    private final class LimitedDataSource extends DelegatingDataSource {
+        LimitedDataSource(DataSource target) {
+            super(target);
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            return acquire(obtainTargetDataSource());
+        }
+    }
+}
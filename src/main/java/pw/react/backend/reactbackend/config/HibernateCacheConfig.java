@@ -0,0 +1,32 @@
+package pw.react.backend.reactbackend.config;
+
+import org.ehcache.jsr107.EhcacheCachingProvider;
+import org.hibernate.cache.jcache.ConfigSettings;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.io.Resource;
+
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import java.io.IOException;
+
+/**
+ * Hands Hibernate's second-level cache a JCache manager built from the active profile's Ehcache config,
+ * since Hibernate cannot resolve {@code classpath:} URIs on its own.
+ */
+@Configuration
+public class HibernateCacheConfig {
+    @Bean(destroyMethod = "close")
+    public CacheManager hibernateCacheManager(@Value("${users.second-level-cache.config}") Resource config)
+            throws IOException {
+        return Caching.getCachingProvider(EhcacheCachingProvider.class.getName())
+                .getCacheManager(config.getURI(), getClass().getClassLoader());
+    }
+
+    @Bean
+    public HibernatePropertiesCustomizer hibernateCacheManagerCustomizer(CacheManager hibernateCacheManager) {
+        return properties -> properties.put(ConfigSettings.CACHE_MANAGER, hibernateCacheManager);
+    }
+}
@@ -0,0 +1,84 @@
+package pw.react.backend.reactbackend.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Replaces the single connection pool with a primary pool plus one pool per {@code users.datasource.replicas}
+ * URL, routed by {@link ReplicaRoutingDataSource}. Replicas use the primary's credentials unless
+ * {@code users.datasource.replica-username} and {@code users.datasource.replica-password} are set. Every pool
+ * is tuned by {@code spring.datasource.hikari.*}, like the single pool Spring Boot would have created.
+ */
+@Configuration
+@ConditionalOnProperty(name = "users.datasource.replicas")
+public class ReadReplicaConfig {
+    private static final String HIKARI_PROPERTIES = "spring.datasource.hikari";
+
+    private final ReplicaRoutingDataSource routing;
+
+    public ReadReplicaConfig(DataSourceProperties properties, Environment environment,
+                             @Value("${users.datasource.replicas}") List<String> replicaUrls,
+                             @Value("${users.datasource.replica-username:${spring.datasource.username:}}")
+                                     String replicaUsername,
+                             @Value("${users.datasource.replica-password:${spring.datasource.password:}}")
+                                     String replicaPassword,
+                             @Value("${users.datasource.read-your-writes:5s}") Duration readYourWrites) {
+        Binder binder = Binder.get(environment);
+        HikariDataSource primary = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        binder.bind(HIKARI_PROPERTIES, Bindable.ofInstance(primary));
+        primary.setPoolName("primary");
+        List<DataSource> replicas = new ArrayList<>();
+        for (String url : replicaUrls) {
+            HikariDataSource replica = properties.initializeDataSourceBuilder()
+                    .type(HikariDataSource.class)
+                    .url(url)
+                    .username(replicaUsername)
+                    .password(replicaPassword)
+                    .build();
+            binder.bind(HIKARI_PROPERTIES, Bindable.ofInstance(replica));
+            replica.setPoolName("replica-" + (replicas.size() + 1));
+            replicas.add(replica);
+        }
+        this.routing = new ReplicaRoutingDataSource(primary, replicas, readYourWrites);
+    }
+
+    /**
+     * The only {@link DataSource} bean, so the slow-query proxy and everything else see the routed connections.
+     * Physical connections are taken on the first statement, once the transaction's read-only flag is set.
+     */
+    @Bean
+    public DataSource dataSource() {
+        return new LazyConnectionDataSourceProxy(routing);
+    }
+
+    @Bean
+    public MeterBinder replicaRoutingMetrics() {
+        return routing::bindTo;
+    }
+
+    @Scheduled(fixedDelayString = "${users.datasource.replica-health-check-interval:PT10S}")
+    public void checkReplicas() {
+        routing.checkReplicas();
+    }
+
+    @PreDestroy
+    public void close() throws Exception {
+        routing.close();
+    }
+}
@@ -0,0 +1,211 @@
+package pw.react.backend.reactbackend.config;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hands out connections of read-only transactions from the replicas, round-robin over those that passed the
+ * last {@link #checkReplicas() health check}, and every other connection from the primary. A replica that
+ * fails to connect is taken out of rotation until the next check and the connection comes from the primary.
+ * <p>
+ * A read-write transaction counts as a write. Read-only transactions stay on the primary for the rest of the
+ * request that wrote and, for {@code readYourWrites} afterwards, for the same authenticated user, so they see
+ * their own changes even when the replicas lag behind.
+ * <p>
+ * The routing decision is taken when the connection is requested, so this must sit behind a
+ * {@link org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy} for the transaction's read-only
+ * flag to be known by then.
+ */
+public class ReplicaRoutingDataSource extends AbstractDataSource implements MeterBinder {
+    private static final Logger log = LoggerFactory.getLogger(ReplicaRoutingDataSource.class);
+    private static final String WROTE_ATTRIBUTE = ReplicaRoutingDataSource.class.getName() + ".WROTE";
+
+    private final DataSource primary;
+    private final List<Replica> replicas = new ArrayList<>();
+    private final AtomicInteger next = new AtomicInteger();
+    private final Cache<String, Boolean> recentWriters;
+
+    private final LongAdder primaryConnections = new LongAdder();
+    private final LongAdder replicaConnections = new LongAdder();
+    private final LongAdder replicaFailures = new LongAdder();
+
+    /**
+     * @param readYourWrites how long reads of a user who wrote stay on the primary; zero only covers the
+     *                       request that wrote
+     */
+    public ReplicaRoutingDataSource(DataSource primary, List<DataSource> replicas, Duration readYourWrites) {
+        this.primary = primary;
+        for (int i = 0; i < replicas.size(); i++) {
+            this.replicas.add(new Replica("replica-" + (i + 1), replicas.get(i)));
+        }
+        this.recentWriters = readYourWrites.isZero() ? null : Caffeine.newBuilder()
+                .expireAfterWrite(readYourWrites)
+                .build();
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        Replica replica = route();
+        if (replica != null) {
+            try {
+                Connection connection = replica.dataSource.getConnection();
+                replicaConnections.increment();
+                return connection;
+            } catch (SQLException ex) {
+                replicaFailures.increment();
+                replica.setHealthy(false, ex);
+            }
+        }
+
+        Connection connection = primary.getConnection();
+        primaryConnections.increment();
+        return connection;
+    }
+
+    /**
+     * Connections for other credentials always come from the primary; replicas only know their own.
+     */
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        Connection connection = primary.getConnection(username, password);
+        primaryConnections.increment();
+        return connection;
+    }
+
+    /**
+     * Validates one connection of every replica and puts it into or takes it out of rotation accordingly.
+     */
+    public void checkReplicas() {
+        for (Replica replica : replicas) {
+            try (Connection connection = replica.dataSource.getConnection()) {
+                replica.setHealthy(connection.isValid(5), null);
+            } catch (SQLException ex) {
+                replica.setHealthy(false, ex);
+            }
+        }
+    }
+
+    public void close() throws Exception {
+        for (DataSource dataSource : allDataSources()) {
+            if (dataSource instanceof AutoCloseable) {
+                ((AutoCloseable) dataSource).close();
+            }
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("users.datasource.connections", primaryConnections, LongAdder::sum)
+                .tag("target", "primary")
+                .description("Connections handed out, by the pool they came from")
+                .register(registry);
+        FunctionCounter.builder("users.datasource.connections", replicaConnections, LongAdder::sum)
+                .tag("target", "replica")
+                .register(registry);
+        FunctionCounter.builder("users.datasource.replica.failures", replicaFailures, LongAdder::sum)
+                .description("Replica connections that failed and were taken from the primary instead")
+                .register(registry);
+        Gauge.builder("users.datasource.replicas.healthy", replicas,
+                all -> all.stream().filter(replica -> replica.healthy).count())
+                .register(registry);
+    }
+
+    private Replica route() {
+        if (!TransactionSynchronizationManager.isActualTransactionActive()) {
+            return null;
+        }
+        if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            wrote();
+            return null;
+        }
+        if (recentlyWrote()) {
+            return null;
+        }
+
+        int start = next.getAndIncrement();
+        for (int i = 0; i < replicas.size(); i++) {
+            Replica replica = replicas.get(Math.floorMod(start + i, replicas.size()));
+            if (replica.healthy) {
+                return replica;
+            }
+        }
+
+        return null;
+    }
+
+    private void wrote() {
+        RequestAttributes request = RequestContextHolder.getRequestAttributes();
+        if (request != null) {
+            request.setAttribute(WROTE_ATTRIBUTE, Boolean.TRUE, RequestAttributes.SCOPE_REQUEST);
+        }
+        String user = user();
+        if (recentWriters != null && user != null) {
+            recentWriters.put(user, Boolean.TRUE);
+        }
+    }
+
+    private boolean recentlyWrote() {
+        RequestAttributes request = RequestContextHolder.getRequestAttributes();
+        if (request != null && request.getAttribute(WROTE_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST) != null) {
+            return true;
+        }
+        String user = user();
+        return recentWriters != null && user != null && recentWriters.getIfPresent(user) != null;
+    }
+
+    private static String user() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        return authentication == null || !authentication.isAuthenticated() ? null : authentication.getName();
+    }
+
+    private List<DataSource> allDataSources() {
+        List<DataSource> all = new ArrayList<>();
+        all.add(primary);
+        replicas.forEach(replica -> all.add(replica.dataSource));
+        return all;
+    }
+
+    private static final class Replica {
+        private final String name;
+        private final DataSource dataSource;
+        private volatile boolean healthy = true;
+
+        Replica(String name, DataSource dataSource) {
+            this.name = name;
+            this.dataSource = dataSource;
+        }
+
+        void setHealthy(boolean healthy, SQLException cause) {
+            if (this.healthy == healthy) {
+                return;
+            }
+            this.healthy = healthy;
+            if (healthy) {
+                log.info("Read replica {} is back in rotation", name);
+            } else {
+                log.warn("Read replica {} taken out of rotation", name, cause);
+            }
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package pw.react.backend.reactbackend.config;
+
+import net.ttddyy.dsproxy.support.ProxyDataSource;
+import net.ttddyy.dsproxy.support.ProxyDataSourceBuilder;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import pw.react.backend.reactbackend.metrics.SlowQueryLog;
+
+import javax.sql.DataSource;
+
+/**
+ * Wraps the connection pool so every statement passes through {@link SlowQueryLog}.
+ */
+@Configuration
+@ConditionalOnProperty(name = "users.slow-query.enabled", matchIfMissing = true)
+public class SlowQueryLogConfig {
+    @Bean
+    public static BeanPostProcessor slowQueryLogDataSourceProxy(ObjectProvider<SlowQueryLog> slowQueryLog) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof DataSource && !(bean instanceof ProxyDataSource)) {
+                    return ProxyDataSourceBuilder.create(beanName, (DataSource) bean)
+                            .listener(slowQueryLog.getObject())
+                            .build();
+                }
+
+                return bean;
+            }
+        };
+    }
+}
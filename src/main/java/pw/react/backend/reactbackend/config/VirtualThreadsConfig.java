@@ -0,0 +1,78 @@
+package pw.react.backend.reactbackend.config;
+
+import org.apache.coyote.AbstractProtocol;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.concurrent.ConcurrentTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * {@code virtual-threads} profile: Tomcat requests, and with them every {@code UsersService} call, plus
+ * asynchronous MVC work such as {@code GET /users/export} run on a new virtual thread each. Blocking JDBC then
+ * costs no pool thread, so database concurrency is bounded by {@link ConnectionLimiter} instead.
+ * <p>
+ * The build targets Java 8, as Spring 5.1 cannot scan class files of newer versions, so virtual threads are
+ * looked up at runtime and the jar has to run on JDK 21 or later. On an older JDK the application fails to
+ * start: an unbounded pool of platform threads in place of Tomcat's bounded one would do more harm than good.
+ */
+@Configuration
+@Profile("virtual-threads")
+public class VirtualThreadsConfig implements WebMvcConfigurer {
+    private final ExecutorService executor = newThreadPerTaskExecutor("request-");
+
+    @Bean
+    public WebServerFactoryCustomizer<TomcatServletWebServerFactory> virtualThreadsConnector() {
+        return factory -> factory.addConnectorCustomizers(
+                connector -> ((AbstractProtocol<?>) connector.getProtocolHandler()).setExecutor(executor));
+    }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setTaskExecutor(new ConcurrentTaskExecutor(executor));
+    }
+
+    @Bean
+    public static ConnectionLimiter connectionLimiter(
+            @Value("${users.virtual-threads.max-connections:10}") int maxConnections,
+            @Value("${users.virtual-threads.connection-timeout:30s}") Duration timeout) {
+        return new ConnectionLimiter(maxConnections, timeout);
+    }
+
+    @Bean
+    public static BeanPostProcessor connectionLimiterDataSourceProxy(ObjectProvider<ConnectionLimiter> limiter) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                return bean instanceof DataSource ? limiter.getObject().wrap((DataSource) bean) : bean;
+            }
+        };
+    }
+
+    private static ExecutorService newThreadPerTaskExecutor(String prefix) {
+        try {
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+            ThreadFactory factory = (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                    .invoke(null, factory);
+        } catch (ReflectiveOperationException ex) {
+            // Missing before JDK 21, and a disabled preview feature on JDK 19 and 20.
+            throw new IllegalStateException("The virtual-threads profile needs Java 21 or later, running on "
+                    + System.getProperty("java.version"), ex);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package pw.react.backend.reactbackend.controllers;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.Authentication;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import pw.react.backend.reactbackend.models.AccessToken;
+import pw.react.backend.reactbackend.security.TokenService;
+
+@RestController
+@RequestMapping("/auth")
+public class AuthenticationController {
+    private TokenService tokenService;
+
+    @Autowired
+    public AuthenticationController(TokenService tokenService) {
+        this.tokenService = tokenService;
+    }
+
+    /**
+     * Exchanges the HTTP Basic credentials of this request for a bearer token.
+     */
+    @PostMapping("/token")
+    public ResponseEntity<AccessToken> issueToken(Authentication authentication) {
+        return ResponseEntity.ok(new AccessToken(tokenService.issue(authentication), tokenService.getTtlSeconds()));
+    }
+}
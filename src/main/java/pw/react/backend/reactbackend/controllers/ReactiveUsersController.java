@@ -0,0 +1,46 @@
+package pw.react.backend.reactbackend.controllers;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import pw.react.backend.reactbackend.errors.ErrorResponse;
+import pw.react.backend.reactbackend.errors.InvalidRequestException;
+import pw.react.backend.reactbackend.models.UserView;
+import pw.react.backend.reactbackend.services.ReactiveUsersService;
+import reactor.core.publisher.Flux;
+
+/**
+ * Streams {@code GET /users} to clients that accept {@code application/stream+json}, one JSON document per
+ * user. Rows are read as the client consumes them and the request thread is released right away; other
+ * media types are still answered one page at a time by {@link UsersController}.
+ */
+@RestController
+@Profile("reactive")
+@RequestMapping("/users")
+public class ReactiveUsersController {
+    private ReactiveUsersService reactiveUsersService;
+
+    @Autowired
+    public ReactiveUsersController(ReactiveUsersService reactiveUsersService) {
+        this.reactiveUsersService = reactiveUsersService;
+    }
+
+    @GetMapping(value = "", produces = MediaType.APPLICATION_STREAM_JSON_VALUE)
+    public Flux<UserView> streamUsers(@RequestParam(required = false) String cursor) {
+        return reactiveUsersService.streamAfter(UsersCursor.decode(cursor));
+    }
+
+    @ExceptionHandler({InvalidRequestException.class})
+    public ResponseEntity<ErrorResponse> invalidRequest(InvalidRequestException ex) {
+        return new ResponseEntity<>(
+                new ErrorResponse(ex.getMessage(), HttpStatus.BAD_REQUEST.value()),
+                HttpStatus.BAD_REQUEST);
+    }
+}
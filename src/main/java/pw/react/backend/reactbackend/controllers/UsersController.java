@@ -1,16 +1,38 @@
 package pw.react.backend.reactbackend.controllers;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import pw.react.backend.reactbackend.errors.ErrorResponse;
+import pw.react.backend.reactbackend.errors.InvalidRequestException;
+import pw.react.backend.reactbackend.errors.PreconditionFailedException;
 import pw.react.backend.reactbackend.errors.UserAlreadyExistsException;
 import pw.react.backend.reactbackend.errors.UserNotFoundException;
 import pw.react.backend.reactbackend.models.User;
+import pw.react.backend.reactbackend.models.UserBatchResult;
+import pw.react.backend.reactbackend.models.UserImportResult;
+import pw.react.backend.reactbackend.models.UserLookupResult;
+import pw.react.backend.reactbackend.models.UserPatch;
+import pw.react.backend.reactbackend.models.UserView;
+import pw.react.backend.reactbackend.repositories.UsersRepository;
+import pw.react.backend.reactbackend.services.UsersImportService;
 import pw.react.backend.reactbackend.services.UsersService;
 
 import javax.validation.Valid;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -18,25 +40,145 @@ import java.util.Map;
 @RestController
 @RequestMapping("/users")
 public class UsersController {
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    public static final String NDJSON_VALUE = "application/x-ndjson";
+    private static final int EXPORT_FLUSH_ROWS = 500;
+
     private UsersService usersService;
+    private UsersImportService usersImportService;
+    private ObjectWriter userWriter;
+
+    @Value("${users.page.max-size:100}")
+    private int maxPageSize = 100;
+
+    @Value("${users.batch.max-size:10000}")
+    private int maxBatchSize = 10000;
+
+    @Value("${users.lookup.max-size:1000}")
+    private int maxLookupSize = 1000;
+
+    @Value("${users.suggest.max-size:20}")
+    private int maxSuggestions = 20;
 
     @Autowired
-    public UsersController(UsersService usersService) {
+    public UsersController(UsersService usersService, UsersImportService usersImportService,
+                           ObjectMapper objectMapper) {
         this.usersService = usersService;
+        this.usersImportService = usersImportService;
+        this.userWriter = objectMapper.writerFor(UserView.class).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
     }
 
     @GetMapping("")
-    public ResponseEntity<List<User>> getUsers(@RequestParam(required = false) String login) {
-        List<User> result;
-        if (login != null && login.length() > 0)
-            result = usersService.findByLogin(login);
-        else
-            result = usersService.findAll();
-        if (result == null) {
-            throw new UserNotFoundException("Login: " + login);
+    public ResponseEntity<List<UserView>> getUsers(@RequestParam(required = false) String login,
+                                               @RequestParam(required = false) String cursor,
+                                               @RequestParam(required = false) Integer limit) {
+        if (login != null && login.length() > 0) {
+            User result = usersService.findByLogin(login)
+                    .orElseThrow(() -> new UserNotFoundException("Login: " + login));
+
+            return ResponseEntity.ok(Collections.singletonList(UserView.of(result)));
         }
 
-        return ResponseEntity.ok(result);
+        int pageSize = pageSize(limit);
+        // One extra row tells whether another page exists without a count query.
+        return page(usersService.findPage(UsersCursor.decode(cursor), pageSize + 1), pageSize);
+    }
+
+    /**
+     * Users whose login, first name or last name starts with {@code q}, or contains it when {@code substring}
+     * is set, ignoring case. Pages through matches like {@code GET /users}.
+     */
+    @GetMapping("/search")
+    public ResponseEntity<List<UserView>> searchUsers(@RequestParam String q,
+                                                      @RequestParam(defaultValue = "false") boolean substring,
+                                                      @RequestParam(required = false) String cursor,
+                                                      @RequestParam(required = false) Integer limit) {
+        int pageSize = pageSize(limit);
+        return page(usersService.search(q, substring, UsersCursor.decode(cursor), pageSize + 1), pageSize);
+    }
+
+    /**
+     * Type-ahead suggestions: users whose login, first name or last name starts with {@code q}, ignoring case,
+     * in alphabetical order of the matching name. Answered from memory, without a query for cached users.
+     */
+    @GetMapping("/suggest")
+    public ResponseEntity<List<UserView>> suggestUsers(@RequestParam String q,
+                                                       @RequestParam(required = false) Integer limit) {
+        int size = limit == null ? maxSuggestions : limit;
+        if (size < 1 || size > maxSuggestions) {
+            throw new InvalidRequestException("Limit: " + size + ", max: " + maxSuggestions);
+        }
+
+        return ResponseEntity.ok(usersService.suggest(q, size));
+    }
+
+    /**
+     * @param result up to {@code pageSize + 1} users ordered by id; the extra one only signals a next page
+     */
+    private static ResponseEntity<List<UserView>> page(List<UserView> result, int pageSize) {
+        if (result.size() <= pageSize) {
+            return ResponseEntity.ok(result);
+        }
+
+        result = result.subList(0, pageSize);
+        return ResponseEntity.ok()
+                .header(NEXT_CURSOR_HEADER, UsersCursor.encode(result.get(pageSize - 1).getId()))
+                .body(result);
+    }
+
+    private int pageSize(Integer limit) {
+        if (limit == null) {
+            return maxPageSize;
+        }
+        if (limit < 1) {
+            throw new InvalidRequestException("Limit: " + limit);
+        }
+
+        return Math.min(limit, maxPageSize);
+    }
+
+    @GetMapping(value = "", params = "ids")
+    public ResponseEntity<UserLookupResult> getUsersById(@RequestParam List<Integer> ids) {
+        return lookupUsers(ids);
+    }
+
+    /**
+     * Same as {@code GET /users?ids=}, for id lists too long for a URL.
+     */
+    @PostMapping("/lookup")
+    public ResponseEntity<UserLookupResult> lookupUsers(@RequestBody List<Integer> ids) {
+        if (ids.size() > maxLookupSize) {
+            throw new InvalidRequestException("Ids: " + ids.size() + ", max: " + maxLookupSize);
+        }
+        if (ids.contains(null)) {
+            throw new InvalidRequestException("Ids: null");
+        }
+
+        return ResponseEntity.ok(usersService.findAllById(ids));
+    }
+
+    @GetMapping(value = "/export", produces = NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> exportUsers() {
+        StreamingResponseBody body = out -> {
+            try (JsonGenerator generator = userWriter.getFactory().createGenerator(out)
+                    .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)) {
+                long[] written = {0};
+                usersService.exportAll(user -> {
+                    try {
+                        userWriter.writeValue(generator, user);
+                        generator.writeRaw('\n');
+                        // Push the first row out immediately, then flush once per batch of rows.
+                        if (written[0]++ % EXPORT_FLUSH_ROWS == 0) {
+                            generator.flush();
+                        }
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                });
+            }
+        };
+
+        return ResponseEntity.ok().body(body);
     }
 
     @GetMapping("/{id}")
@@ -46,48 +188,84 @@ public class UsersController {
             throw new UserNotFoundException("Id: " + id);
         }
 
-        return ResponseEntity.ok(result);
+        // A matching If-None-Match is answered with 304 by Spring MVC before the body is serialized.
+        return ResponseEntity.ok().eTag(UsersETag.of(result)).body(result);
     }
 
     @PostMapping("/")
     public ResponseEntity<User> createUser(@Valid @RequestBody User user) {
-        if (usersService.exists(user)) {
-            throw new UserAlreadyExistsException("Login: " + user.getLogin());
-        }
-
         User result = usersService.save(user);
 
         return ResponseEntity.ok(result);
     }
 
+    @PostMapping("/batch")
+    public ResponseEntity<List<UserBatchResult>> createUsers(@RequestBody List<User> users) {
+        if (users.size() > maxBatchSize) {
+            throw new InvalidRequestException("Batch size: " + users.size() + ", max: " + maxBatchSize);
+        }
+
+        return ResponseEntity.ok(usersService.saveAll(users));
+    }
+
+    @PostMapping(value = "/import", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<UserImportResult> importUsers(@RequestParam("file") MultipartFile file) throws IOException {
+        try (InputStream csv = file.getInputStream()) {
+            return ResponseEntity.ok(usersImportService.importCsv(csv));
+        }
+    }
+
     @PutMapping("/{id}")
-    public ResponseEntity<User> updateUser(@PathVariable(value = "id") int id, @Valid @RequestBody User user) {
-        User userToUpdate = usersService.findById(id);
-        if (userToUpdate == null) {
+    public ResponseEntity<User> updateUser(@PathVariable(value = "id") int id,
+                                           @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch,
+                                           @Valid @RequestBody User user) {
+        long expectedVersion = UsersETag.expectedVersion(ifMatch);
+        if (!usersService.update(id, user, expectedVersion)) {
+            throw new UserNotFoundException("Id: " + id);
+        }
+
+        user.setId(id);
+        return withNewETag(ResponseEntity.ok(), expectedVersion).body(user);
+    }
+
+    @PatchMapping("/{id}")
+    public ResponseEntity<Map<String, Boolean>> patchUser(@PathVariable(value = "id") int id,
+                                                          @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch,
+                                                          @Valid @RequestBody UserPatch patch) {
+        if (!patch.hasChanges()) {
+            throw new InvalidRequestException("Nothing to update");
+        }
+        long expectedVersion = UsersETag.expectedVersion(ifMatch);
+        if (!usersService.patch(id, patch, expectedVersion)) {
             throw new UserNotFoundException("Id: " + id);
         }
 
-        userToUpdate.setAllDetails(user.getLogin(), user.getFirstName(), user.getLastName(), user.getDateOfBirth(),
-                user.getIsActive());
-        final User updatedUser = usersService.save(userToUpdate);
+        Map<String, Boolean> response = new HashMap<>();
+        response.put("updated", Boolean.TRUE);
 
-        return ResponseEntity.ok(updatedUser);
+        return withNewETag(ResponseEntity.ok(), expectedVersion).body(response);
     }
 
     @DeleteMapping("/{id}")
-    public ResponseEntity<Map<String, Boolean>> deleteUser(@PathVariable(value = "id") int id) {
-        User userToDelete = usersService.findById(id);
-        if (userToDelete == null) {
+    public ResponseEntity<Map<String, Boolean>> deleteUser(@PathVariable(value = "id") int id,
+                                                           @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        if (!usersService.deleteById(id, UsersETag.expectedVersion(ifMatch))) {
             throw new UserNotFoundException("Id: " + id);
         }
 
-        usersService.delete(userToDelete);
         Map<String, Boolean> response = new HashMap<>();
         response.put("deleted", Boolean.TRUE);
 
         return ResponseEntity.ok(response);
     }
 
+    /**
+     * The new version is only known without a read when the write was conditional on the previous one.
+     */
+    private static ResponseEntity.BodyBuilder withNewETag(ResponseEntity.BodyBuilder builder, long expectedVersion) {
+        return expectedVersion == UsersRepository.ANY_VERSION ? builder : builder.eTag(UsersETag.of(expectedVersion + 1));
+    }
+
     @ExceptionHandler({UserAlreadyExistsException.class})
     public ResponseEntity<ErrorResponse> alreadyExists(UserAlreadyExistsException ex) {
         return new ResponseEntity<>(
@@ -95,6 +273,21 @@ public class UsersController {
                 HttpStatus.BAD_REQUEST);
     }
 
+    @ExceptionHandler({InvalidRequestException.class})
+    public ResponseEntity<ErrorResponse> invalidRequest(InvalidRequestException ex) {
+        return new ResponseEntity<>(
+                new ErrorResponse(ex.getMessage(), HttpStatus.BAD_REQUEST.value()),
+                HttpStatus.BAD_REQUEST);
+    }
+
+    @ExceptionHandler({PreconditionFailedException.class})
+    public ResponseEntity<ErrorResponse> preconditionFailed(PreconditionFailedException ex) {
+        return new ResponseEntity<>(
+                new ErrorResponse(ex.getMessage(), HttpStatus.PRECONDITION_FAILED.value(),
+                        "The user was modified by another request"),
+                HttpStatus.PRECONDITION_FAILED);
+    }
+
     @ExceptionHandler({UserNotFoundException.class})
     public ResponseEntity<ErrorResponse> notFound(UserNotFoundException ex) {
         return new ResponseEntity<>(
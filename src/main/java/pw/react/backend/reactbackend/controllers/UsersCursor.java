@@ -0,0 +1,35 @@
+package pw.react.backend.reactbackend.controllers;
+
+import pw.react.backend.reactbackend.errors.InvalidRequestException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Opaque keyset cursor for paging through users ordered by id.
+ * The token wraps the id of the last user returned on the previous page.
+ */
+final class UsersCursor {
+    static final int START = 0;
+
+    private UsersCursor() {
+    }
+
+    static String encode(int lastId) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(Integer.toString(lastId).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    static int decode(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return START;
+        }
+
+        try {
+            String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.US_ASCII);
+            return Integer.parseInt(decoded);
+        } catch (IllegalArgumentException ex) {
+            throw new InvalidRequestException("Cursor: " + cursor);
+        }
+    }
+}
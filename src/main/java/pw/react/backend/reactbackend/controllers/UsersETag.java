@@ -0,0 +1,46 @@
+package pw.react.backend.reactbackend.controllers;
+
+import pw.react.backend.reactbackend.errors.PreconditionFailedException;
+import pw.react.backend.reactbackend.models.User;
+import pw.react.backend.reactbackend.repositories.UsersRepository;
+
+/**
+ * Strong entity tags for users, derived from {@link User#getVersion()}.
+ */
+final class UsersETag {
+    private UsersETag() {
+    }
+
+    static String of(long version) {
+        return "\"" + version + "\"";
+    }
+
+    static String of(User user) {
+        return of(user.getVersion());
+    }
+
+    /**
+     * Only a single strong tag (or {@code *}) can ever match; anything else fails the precondition.
+     *
+     * @return version named by an {@code If-Match} header, {@link UsersRepository#ANY_VERSION} when there is none
+     */
+    static long expectedVersion(String ifMatch) {
+        if (ifMatch == null || ifMatch.trim().equals("*")) {
+            return UsersRepository.ANY_VERSION;
+        }
+
+        String tag = ifMatch.trim();
+        if (tag.length() > 2 && tag.startsWith("\"") && tag.endsWith("\"")) {
+            try {
+                long version = Long.parseLong(tag.substring(1, tag.length() - 1));
+                if (version >= 0) {
+                    return version;
+                }
+            } catch (NumberFormatException ex) {
+                // Falls through to the failed precondition below.
+            }
+        }
+
+        throw new PreconditionFailedException("If-Match: " + ifMatch);
+    }
+}
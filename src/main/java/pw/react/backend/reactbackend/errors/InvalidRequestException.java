@@ -0,0 +1,11 @@
+package pw.react.backend.reactbackend.errors;
+
+public class InvalidRequestException extends RuntimeException {
+    public InvalidRequestException() {
+        this("");
+    }
+
+    public InvalidRequestException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,11 @@
+package pw.react.backend.reactbackend.errors;
+
+public class PreconditionFailedException extends RuntimeException {
+    public PreconditionFailedException() {
+        this("");
+    }
+
+    public PreconditionFailedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,55 @@
+package pw.react.backend.reactbackend.metrics;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+
+/**
+ * Publishes queue depth and dropped events of every {@link MeteredAsyncAppender} configured in
+ * logback-spring.xml as {@code logging.async.*} metrics, tagged by appender name.
+ */
+@Component
+public class AsyncLoggingMetrics implements MeterBinder {
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        if (!(LoggerFactory.getILoggerFactory() instanceof LoggerContext)) {
+            return;
+        }
+
+        for (Logger logger : ((LoggerContext) LoggerFactory.getILoggerFactory()).getLoggerList()) {
+            for (Iterator<Appender<ILoggingEvent>> it = logger.iteratorForAppenders(); it.hasNext(); ) {
+                Appender<ILoggingEvent> appender = it.next();
+                if (appender instanceof MeteredAsyncAppender) {
+                    bind(registry, (MeteredAsyncAppender) appender);
+                }
+            }
+        }
+    }
+
+    private static void bind(MeterRegistry registry, MeteredAsyncAppender appender) {
+        Gauge.builder("logging.async.queue.depth", appender, MeteredAsyncAppender::getNumberOfElementsInQueue)
+                .tag("appender", appender.getName())
+                .description("Events waiting to be written")
+                .register(registry);
+        Gauge.builder("logging.async.queue.capacity", appender, MeteredAsyncAppender::getQueueSize)
+                .tag("appender", appender.getName())
+                .register(registry);
+        FunctionCounter.builder("logging.async.dropped", appender, MeteredAsyncAppender::getDiscarded)
+                .tags("appender", appender.getName(), "reason", "discarded")
+                .description("Low-severity events dropped while the queue was nearly full")
+                .register(registry);
+        FunctionCounter.builder("logging.async.dropped", appender, MeteredAsyncAppender::getRejected)
+                .tags("appender", appender.getName(), "reason", "queue-full")
+                .description("Events dropped because the queue was full")
+                .register(registry);
+    }
+}
@@ -0,0 +1,75 @@
+package pw.react.backend.reactbackend.metrics;
+
+import ch.qos.logback.classic.AsyncAppender;
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Asynchronous appender that never blocks the logging thread and counts what it drops.
+ * Once fewer than {@code discardingThreshold} slots are free, events at or below {@code discardLevel}
+ * are discarded; when the queue is full, every event is. {@link AsyncLoggingMetrics} publishes the counts
+ * and the queue depth.
+ * <p>
+ * Logback does not report whether its queue accepted an event, so appending threads take turns: the worker only
+ * frees slots meanwhile, so an event the capacity check lets through is always queued, and every drop is counted.
+ */
+public class MeteredAsyncAppender extends AsyncAppender {
+    private final LongAdder discarded = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final Object appending = new Object();
+    private Level discardLevel = Level.INFO;
+
+    public MeteredAsyncAppender() {
+        setNeverBlock(true);
+    }
+
+    @Override
+    protected void append(ILoggingEvent event) {
+        if (!isStarted()) {
+            return;
+        }
+
+        synchronized (appending) {
+            int remaining = getRemainingCapacity();
+            if (remaining < getDiscardingThreshold() && isDiscardable(event)) {
+                discarded.increment();
+            } else if (remaining == 0) {
+                rejected.increment();
+            } else {
+                super.append(event);
+            }
+        }
+    }
+
+    @Override
+    protected boolean isDiscardable(ILoggingEvent event) {
+        return event.getLevel().toInt() <= discardLevel.toInt();
+    }
+
+    /**
+     * @param discardLevel most severe level that may be discarded under pressure, e.g. {@code INFO}
+     */
+    public void setDiscardLevel(String discardLevel) {
+        this.discardLevel = Level.toLevel(discardLevel, Level.INFO);
+    }
+
+    public String getDiscardLevel() {
+        return discardLevel.toString();
+    }
+
+    /**
+     * @return events discarded by the low-severity drop policy
+     */
+    public long getDiscarded() {
+        return discarded.sum();
+    }
+
+    /**
+     * @return events of any level dropped because the queue was full
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+}
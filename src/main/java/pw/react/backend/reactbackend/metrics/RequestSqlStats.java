@@ -0,0 +1,59 @@
+package pw.react.backend.reactbackend.metrics;
+
+import java.util.function.Supplier;
+
+/**
+ * SQL statements run on the current thread while a request is being served.
+ * {@link SqlStatementListener} feeds it; {@code CustomFilter} opens and closes it around each request.
+ */
+public final class RequestSqlStats {
+    private static final ThreadLocal<RequestSqlStats> CURRENT = new ThreadLocal<>();
+
+    private final Supplier<String> origin;
+    private int statements;
+    private long nanos;
+    private long startedAt;
+
+    private RequestSqlStats(Supplier<String> origin) {
+        this.origin = origin;
+    }
+
+    /**
+     * @param origin supplies the controller method serving the request, or null before the dispatcher has picked
+     *               one (statements run while authenticating); asked only when a statement is logged
+     */
+    public static RequestSqlStats open(Supplier<String> origin) {
+        RequestSqlStats stats = new RequestSqlStats(origin);
+        CURRENT.set(stats);
+        return stats;
+    }
+
+    public static void close() {
+        CURRENT.remove();
+    }
+
+    static RequestSqlStats current() {
+        return CURRENT.get();
+    }
+
+    void statementStarted() {
+        startedAt = System.nanoTime();
+    }
+
+    void statementFinished() {
+        statements++;
+        nanos += System.nanoTime() - startedAt;
+    }
+
+    public String getOrigin() {
+        return origin.get();
+    }
+
+    public int getStatements() {
+        return statements;
+    }
+
+    public long getNanos() {
+        return nanos;
+    }
+}
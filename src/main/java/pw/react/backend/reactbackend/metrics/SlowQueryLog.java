@@ -0,0 +1,82 @@
+package pw.react.backend.reactbackend.metrics;
+
+import net.ttddyy.dsproxy.ExecutionInfo;
+import net.ttddyy.dsproxy.QueryInfo;
+import net.ttddyy.dsproxy.listener.QueryExecutionListener;
+import net.ttddyy.dsproxy.proxy.ParameterSetOperation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.StringJoiner;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Logs statements that took at least {@code users.slow-query.threshold}, plus a random
+ * {@code users.slow-query.sample-rate} share of the others, to the {@value #LOGGER} logger.
+ * Bind parameters are logged by type only, never by value. logback-spring.xml hands the logger
+ * to an asynchronous appender, so request threads never wait for the file.
+ */
+@Component
+public class SlowQueryLog implements QueryExecutionListener {
+    public static final String LOGGER = "users.slow-queries";
+    private static final Logger log = LoggerFactory.getLogger(LOGGER);
+    private static final String UNKNOWN_ORIGIN = "-";
+
+    private final long thresholdMillis;
+    private final double sampleRate;
+
+    @Autowired
+    public SlowQueryLog(@Value("${users.slow-query.threshold:200ms}") Duration threshold,
+                        @Value("${users.slow-query.sample-rate:0}") double sampleRate) {
+        this.thresholdMillis = threshold.toMillis();
+        this.sampleRate = sampleRate;
+    }
+
+    @Override
+    public void beforeQuery(ExecutionInfo execution, List<QueryInfo> queries) {
+    }
+
+    @Override
+    public void afterQuery(ExecutionInfo execution, List<QueryInfo> queries) {
+        long elapsed = execution.getElapsedTime();
+        boolean slow = elapsed >= thresholdMillis;
+        if (!slow && (sampleRate <= 0 || ThreadLocalRandom.current().nextDouble() >= sampleRate)) {
+            return;
+        }
+        if (!log.isInfoEnabled()) {
+            return;
+        }
+
+        RequestSqlStats stats = RequestSqlStats.current();
+        String origin = stats == null || stats.getOrigin() == null ? UNKNOWN_ORIGIN : stats.getOrigin();
+        for (QueryInfo query : queries) {
+            List<List<ParameterSetOperation>> parameters = query.getParametersList();
+            log.info("slow={} elapsedMs={} success={} origin={} rows={} params={} sql=\"{}\"",
+                    slow, elapsed, execution.isSuccess(), origin, Math.max(parameters.size(), 1),
+                    parameters.isEmpty() ? "[]" : shape(parameters.get(0)), query.getQuery());
+        }
+    }
+
+    /**
+     * Batched rows share one statement, so the first row's parameter types describe all of them.
+     */
+    private static String shape(List<ParameterSetOperation> row) {
+        StringJoiner types = new StringJoiner(",", "[", "]");
+        for (ParameterSetOperation operation : row) {
+            String setter = operation.getMethod().getName();
+            Object[] args = operation.getArgs();
+            if ("setObject".equals(setter) && args.length > 1 && args[1] != null) {
+                types.add(args[1].getClass().getSimpleName());
+            } else {
+                types.add(setter.startsWith("set") ? setter.substring(3) : setter);
+            }
+        }
+
+        return types.toString();
+    }
+}
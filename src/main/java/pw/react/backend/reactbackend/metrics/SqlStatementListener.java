@@ -0,0 +1,34 @@
+package pw.react.backend.reactbackend.metrics;
+
+import org.hibernate.BaseSessionEventListener;
+
+/**
+ * Registered with Hibernate through {@code hibernate.session.events.auto}; one instance per session.
+ */
+public class SqlStatementListener extends BaseSessionEventListener {
+    @Override
+    public void jdbcExecuteStatementStart() {
+        RequestSqlStats stats = RequestSqlStats.current();
+        if (stats != null) {
+            stats.statementStarted();
+        }
+    }
+
+    @Override
+    public void jdbcExecuteStatementEnd() {
+        RequestSqlStats stats = RequestSqlStats.current();
+        if (stats != null) {
+            stats.statementFinished();
+        }
+    }
+
+    @Override
+    public void jdbcExecuteBatchStart() {
+        jdbcExecuteStatementStart();
+    }
+
+    @Override
+    public void jdbcExecuteBatchEnd() {
+        jdbcExecuteStatementEnd();
+    }
+}
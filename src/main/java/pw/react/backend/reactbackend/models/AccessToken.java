@@ -0,0 +1,26 @@
+package pw.react.backend.reactbackend.models;
+
+public class AccessToken {
+    private String accessToken;
+    private long expiresIn;
+
+    public AccessToken(String accessToken, long expiresIn) {
+        this.accessToken = accessToken;
+        this.expiresIn = expiresIn;
+    }
+
+    public String getAccessToken() {
+        return accessToken;
+    }
+
+    public String getTokenType() {
+        return "Bearer";
+    }
+
+    /**
+     * @return seconds until the token expires
+     */
+    public long getExpiresIn() {
+        return expiresIn;
+    }
+}
@@ -1,25 +1,42 @@
 package pw.react.backend.reactbackend.models;
 
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.springframework.data.jpa.domain.support.AuditingEntityListener;
 
 import javax.persistence.*;
+import javax.validation.constraints.NotBlank;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Size;
 import java.time.LocalDate;
 
 @Entity
-@Table(name = "users")
+@Table(name = "users", uniqueConstraints = @UniqueConstraint(name = User.LOGIN_CONSTRAINT, columnNames = "login"))
 @EntityListeners(AuditingEntityListener.class)
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 public class User {
+    public static final String LOGIN_CONSTRAINT = "users_login_key";
+
     @Id
-    @GeneratedValue(strategy = GenerationType.AUTO)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "users_seq")
+    @SequenceGenerator(name = "users_seq", sequenceName = "users_seq", allocationSize = 50)
     private int id;
 
+    @NotBlank
+    @Size(max = 255)
     @Column(name = "login", nullable = false)
     private String login;
 
+    @NotNull
+    @Size(max = 255)
     @Column(name = "first_name", nullable = false)
     private String firstName;
 
+    @NotNull
+    @Size(max = 255)
     @Column(name = "last_name", nullable = false)
     private String lastName;
 
@@ -29,6 +46,11 @@ public class User {
     @Column(name = "is_active", nullable = false)
     private boolean isActive;
 
+    @JsonIgnore
+    @Version
+    @Column(name = "version", nullable = false)
+    private long version;
+
     public User setAllDetails(int Id, String login, String firstName, String lastName, LocalDate dateOfBirth, boolean isActive) {
         setLogin(login);
         setFirstName(firstName);
@@ -95,6 +117,14 @@ public class User {
         this.isActive = isActive;
     }
 
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
     @Override
     public String toString() {
         return login + ": " + firstName + " " + lastName;
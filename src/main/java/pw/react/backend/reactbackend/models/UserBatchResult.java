@@ -0,0 +1,46 @@
+package pw.react.backend.reactbackend.models;
+
+public class UserBatchResult {
+    public enum Status {
+        CREATED,
+        INVALID,
+        ALREADY_EXISTS,
+        DUPLICATE_IN_REQUEST
+    }
+
+    private int index;
+    private String login;
+    private Status status;
+    private Integer id;
+
+    public UserBatchResult(int index, String login, Status status, Integer id) {
+        this.index = index;
+        this.login = login;
+        this.status = status;
+        this.id = id;
+    }
+
+    public static UserBatchResult created(int index, User user) {
+        return new UserBatchResult(index, user.getLogin(), Status.CREATED, user.getId());
+    }
+
+    public static UserBatchResult rejected(int index, User user, Status status) {
+        return new UserBatchResult(index, user == null ? null : user.getLogin(), status, null);
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public String getLogin() {
+        return login;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public Integer getId() {
+        return id;
+    }
+}
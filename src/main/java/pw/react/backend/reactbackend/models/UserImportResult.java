@@ -0,0 +1,30 @@
+package pw.react.backend.reactbackend.models;
+
+public class UserImportResult {
+    private long accepted;
+    private long rejected;
+    private long durationMillis;
+
+    public UserImportResult(long accepted, long rejected, long durationMillis) {
+        this.accepted = accepted;
+        this.rejected = rejected;
+        this.durationMillis = durationMillis;
+    }
+
+    public long getAccepted() {
+        return accepted;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    public double getRowsPerSecond() {
+        long rows = accepted + rejected;
+        return durationMillis == 0 ? rows * 1000.0 : rows * 1000.0 / durationMillis;
+    }
+}
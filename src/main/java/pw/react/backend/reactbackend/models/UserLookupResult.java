@@ -0,0 +1,21 @@
+package pw.react.backend.reactbackend.models;
+
+import java.util.List;
+
+public class UserLookupResult {
+    private List<User> found;
+    private List<Integer> missing;
+
+    public UserLookupResult(List<User> found, List<Integer> missing) {
+        this.found = found;
+        this.missing = missing;
+    }
+
+    public List<User> getFound() {
+        return found;
+    }
+
+    public List<Integer> getMissing() {
+        return missing;
+    }
+}
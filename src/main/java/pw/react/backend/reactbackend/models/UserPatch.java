@@ -0,0 +1,68 @@
+package pw.react.backend.reactbackend.models;
+
+import javax.validation.constraints.Pattern;
+import javax.validation.constraints.Size;
+import java.time.LocalDate;
+
+/**
+ * Partial update of a {@link User}; only non-null fields are written.
+ */
+public class UserPatch {
+    @Pattern(regexp = ".*\\S.*")
+    @Size(max = 255)
+    private String login;
+
+    @Size(max = 255)
+    private String firstName;
+
+    @Size(max = 255)
+    private String lastName;
+
+    private LocalDate dateOfBirth;
+
+    private Boolean isActive;
+
+    public boolean hasChanges() {
+        return login != null || firstName != null || lastName != null || dateOfBirth != null || isActive != null;
+    }
+
+    public String getLogin() {
+        return login;
+    }
+
+    public void setLogin(String login) {
+        this.login = login;
+    }
+
+    public String getFirstName() {
+        return firstName;
+    }
+
+    public void setFirstName(String firstName) {
+        this.firstName = firstName;
+    }
+
+    public String getLastName() {
+        return lastName;
+    }
+
+    public void setLastName(String lastName) {
+        this.lastName = lastName;
+    }
+
+    public LocalDate getDateOfBirth() {
+        return dateOfBirth;
+    }
+
+    public void setDateOfBirth(LocalDate dateOfBirth) {
+        this.dateOfBirth = dateOfBirth;
+    }
+
+    public Boolean getIsActive() {
+        return isActive;
+    }
+
+    public void setIsActive(Boolean isActive) {
+        this.isActive = isActive;
+    }
+}
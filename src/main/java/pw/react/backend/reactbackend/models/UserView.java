@@ -0,0 +1,83 @@
+package pw.react.backend.reactbackend.models;
+
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
+import java.time.LocalDate;
+import java.util.Objects;
+
+/**
+ * Read-only copy of a {@link User} as it appears in responses. Repository queries select it with a constructor
+ * expression, so rows are neither turned into entities nor tracked by the persistence context.
+ */
+@JsonSerialize(using = UserViewSerializer.class)
+public class UserView {
+    private final int id;
+    private final String login;
+    private final String firstName;
+    private final String lastName;
+    private final LocalDate dateOfBirth;
+    private final boolean isActive;
+
+    public UserView(int id, String login, String firstName, String lastName, LocalDate dateOfBirth, boolean isActive) {
+        this.id = id;
+        this.login = login;
+        this.firstName = firstName;
+        this.lastName = lastName;
+        this.dateOfBirth = dateOfBirth;
+        this.isActive = isActive;
+    }
+
+    public static UserView of(User user) {
+        return new UserView(user.getId(), user.getLogin(), user.getFirstName(), user.getLastName(),
+                user.getDateOfBirth(), user.getIsActive());
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getLogin() {
+        return login;
+    }
+
+    public String getFirstName() {
+        return firstName;
+    }
+
+    public String getLastName() {
+        return lastName;
+    }
+
+    public LocalDate getDateOfBirth() {
+        return dateOfBirth;
+    }
+
+    public boolean getIsActive() {
+        return isActive;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof UserView)) {
+            return false;
+        }
+
+        UserView other = (UserView) o;
+        return id == other.id && isActive == other.isActive && Objects.equals(login, other.login)
+                && Objects.equals(firstName, other.firstName) && Objects.equals(lastName, other.lastName)
+                && Objects.equals(dateOfBirth, other.dateOfBirth);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, login, firstName, lastName, dateOfBirth, isActive);
+    }
+
+    @Override
+    public String toString() {
+        return login + ": " + firstName + " " + lastName;
+    }
+}
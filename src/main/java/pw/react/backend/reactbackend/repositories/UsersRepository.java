@@ -1,14 +1,120 @@
 package pw.react.backend.reactbackend.repositories;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 import pw.react.backend.reactbackend.models.User;
+import pw.react.backend.reactbackend.models.UserView;
 
+import javax.persistence.QueryHint;
+import java.time.LocalDate;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.QueryHints.*;
 
 @Repository
 public interface UsersRepository extends JpaRepository<User, Long> {
-    List<User> findByLogin(String login);
+    String STREAM_FETCH_SIZE = "500";
+    String BY_LOGIN_REGION = "users.byLogin";
+    String BY_ID_REGION = "users.byId";
+    /**
+     * Expected version that matches any version of a user.
+     */
+    long ANY_VERSION = -1;
+
+    @QueryHints({
+            @QueryHint(name = HINT_CACHEABLE, value = "true"),
+            @QueryHint(name = HINT_CACHE_REGION, value = BY_LOGIN_REGION)
+    })
+    Optional<User> findByLogin(String login);
 
+    @QueryHints({
+            @QueryHint(name = HINT_CACHEABLE, value = "true"),
+            @QueryHint(name = HINT_CACHE_REGION, value = BY_ID_REGION)
+    })
     User findById(int Id);
+
+    /**
+     * Overwrites every column of the user with the given id and version in one statement and bumps the version.
+     *
+     * @param version expected current version, or {@link #ANY_VERSION}
+     * @return number of updated rows, 0 when there is no such user or its version differs
+     */
+    @Transactional
+    @Modifying
+    @Query("update User u set u.login = :login, u.firstName = :firstName, u.lastName = :lastName, "
+            + "u.dateOfBirth = :dateOfBirth, u.isActive = :isActive, u.version = u.version + 1 "
+            + "where u.id = :id and (:version = -1L or u.version = :version)")
+    int updateById(@Param("id") int id, @Param("login") String login, @Param("firstName") String firstName,
+                   @Param("lastName") String lastName, @Param("dateOfBirth") LocalDate dateOfBirth,
+                   @Param("isActive") boolean isActive, @Param("version") long version);
+
+    /**
+     * @param version expected current version, or {@link #ANY_VERSION}
+     * @return number of deleted rows, 0 when there is no such user or its version differs
+     */
+    @Transactional
+    @Modifying
+    @Query("delete from User u where u.id = :id and (:version = -1L or u.version = :version)")
+    int removeById(@Param("id") int id, @Param("version") long version);
+
+    @Query("select u from User u where u.id in :ids")
+    List<User> findByIdIn(@Param("ids") Collection<Integer> ids);
+
+    @Query("select u.login from User u where u.login in :logins")
+    Set<String> findExistingLogins(@Param("logins") Collection<String> logins);
+
+    /**
+     * Users with id greater than {@code afterId}, ordered by id, selected straight into {@link UserView}s.
+     */
+    @Query("select new pw.react.backend.reactbackend.models.UserView("
+            + "u.id, u.login, u.firstName, u.lastName, u.dateOfBirth, u.isActive) "
+            + "from User u where u.id > :afterId order by u.id")
+    List<UserView> findViewsAfter(@Param("afterId") int afterId, Pageable pageable);
+
+    /**
+     * Users with id greater than {@code afterId} whose lower-cased login, first name or last name is like
+     * {@code pattern}, ordered by id. A backslash escapes wildcards in the pattern. On PostgreSQL the
+     * {@code users_*_prefix} indexes of schema-postgresql.sql serve prefix patterns and the {@code users_*_trgm}
+     * indexes substring patterns.
+     */
+    @Query("select new pw.react.backend.reactbackend.models.UserView("
+            + "u.id, u.login, u.firstName, u.lastName, u.dateOfBirth, u.isActive) "
+            + "from User u where u.id > :afterId and (lower(u.login) like :pattern escape '\\' "
+            + "or lower(u.firstName) like :pattern escape '\\' or lower(u.lastName) like :pattern escape '\\') "
+            + "order by u.id")
+    List<UserView> searchViewsAfter(@Param("pattern") String pattern, @Param("afterId") int afterId,
+                                    Pageable pageable);
+
+    /**
+     * Forward-only cursor over all users ordered by id, selected straight into {@link UserView}s so that an
+     * export or an index rebuild neither fills the persistence context nor pushes hot entries out of the
+     * second-level cache. Must be consumed and closed inside a transaction.
+     */
+    @QueryHints({
+            @QueryHint(name = HINT_FETCH_SIZE, value = STREAM_FETCH_SIZE),
+            @QueryHint(name = HINT_CACHEABLE, value = "false")
+    })
+    @Query("select new pw.react.backend.reactbackend.models.UserView("
+            + "u.id, u.login, u.firstName, u.lastName, u.dateOfBirth, u.isActive) from User u order by u.id")
+    Stream<UserView> streamAll();
+
+    /**
+     * Forward-only cursor over every login. Must be consumed and closed inside a transaction.
+     */
+    @QueryHints({
+            @QueryHint(name = HINT_FETCH_SIZE, value = STREAM_FETCH_SIZE),
+            @QueryHint(name = HINT_CACHEABLE, value = "false")
+    })
+    @Query("select u.login from User u")
+    Stream<String> streamLogins();
 }
@@ -0,0 +1,51 @@
+package pw.react.backend.reactbackend.security;
+
+import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.AuthenticationException;
+
+/**
+ * Answers repeated username/password logins from {@link CredentialsCache}, so only the first request of a
+ * client within the cache TTL pays for the user lookup and the password hash check. Failed logins are never
+ * cached.
+ */
+public class CachingAuthenticationProvider implements AuthenticationProvider {
+    private final AuthenticationProvider delegate;
+    private final CredentialsCache credentialsCache;
+
+    public CachingAuthenticationProvider(AuthenticationProvider delegate, CredentialsCache credentialsCache) {
+        this.delegate = delegate;
+        this.credentialsCache = credentialsCache;
+    }
+
+    @Override
+    public Authentication authenticate(Authentication authentication) throws AuthenticationException {
+        Object credentials = authentication.getCredentials();
+        if (credentials == null) {
+            return delegate.authenticate(authentication);
+        }
+
+        String key = credentialsCache.key(authentication.getName(), credentials.toString());
+        Authentication verified = credentialsCache.get(key);
+        if (verified == null) {
+            verified = delegate.authenticate(authentication);
+            if (verified == null) {
+                return null;
+            }
+            credentialsCache.put(key, verified);
+        }
+
+        // A fresh token per request: the authentication manager erases its credentials and sets request details.
+        UsernamePasswordAuthenticationToken result = new UsernamePasswordAuthenticationToken(
+                verified.getPrincipal(), null, verified.getAuthorities());
+        result.setDetails(authentication.getDetails());
+        return result;
+    }
+
+    @Override
+    public boolean supports(Class<?> authentication) {
+        return UsernamePasswordAuthenticationToken.class.isAssignableFrom(authentication)
+                && delegate.supports(authentication);
+    }
+}
@@ -0,0 +1,89 @@
+package pw.react.backend.reactbackend.security;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.Authentication;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Collections;
+
+/**
+ * Credentials that recently passed verification, keyed by an HMAC of username and password under a key
+ * generated at startup, so neither the password nor an offline-checkable hash of it is kept in memory.
+ * Hit, miss and eviction counts are published as {@code cache.*} metrics with {@code cache=credentials}.
+ */
+@Component
+public class CredentialsCache implements MeterBinder {
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private final SecretKeySpec key;
+    private final ThreadLocal<Mac> macs;
+    private final Cache<String, Authentication> verified;
+
+    @Autowired
+    public CredentialsCache(@Value("${users.security.credentials-cache.ttl:60s}") Duration ttl,
+                            @Value("${users.security.credentials-cache.max-size:10000}") long maxSize) {
+        byte[] secret = new byte[32];
+        new SecureRandom().nextBytes(secret);
+        this.key = new SecretKeySpec(secret, ALGORITHM);
+        this.macs = ThreadLocal.withInitial(this::newMac);
+        this.verified = Caffeine.newBuilder()
+                .expireAfterWrite(ttl)
+                .maximumSize(maxSize)
+                .recordStats()
+                .build();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        new CaffeineCacheMetrics(verified, "credentials", Collections.emptyList()).bindTo(registry);
+    }
+
+    public String key(String username, String password) {
+        Mac mac = macs.get();
+        mac.update(username.getBytes(StandardCharsets.UTF_8));
+        mac.update((byte) 0);
+        return Base64.getEncoder().encodeToString(mac.doFinal(password.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    public Authentication get(String key) {
+        return verified.getIfPresent(key);
+    }
+
+    public void put(String key, Authentication authentication) {
+        verified.put(key, authentication);
+    }
+
+    /**
+     * Forgets every verified password of {@code username}, e.g. after a password change or deactivation.
+     */
+    public void invalidate(String username) {
+        verified.asMap().values().removeIf(authentication -> username.equals(authentication.getName()));
+    }
+
+    public void invalidateAll() {
+        verified.invalidateAll();
+    }
+
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException ex) {
+            throw new IllegalStateException(ALGORITHM + " is not available", ex);
+        }
+    }
+}
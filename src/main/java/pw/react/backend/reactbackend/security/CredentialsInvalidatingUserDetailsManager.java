@@ -0,0 +1,39 @@
+package pw.react.backend.reactbackend.security;
+
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.provisioning.InMemoryUserDetailsManager;
+
+/**
+ * Drops cached credentials of an account as soon as its password, authorities or status change.
+ */
+public class CredentialsInvalidatingUserDetailsManager extends InMemoryUserDetailsManager {
+    private final CredentialsCache credentialsCache;
+
+    public CredentialsInvalidatingUserDetailsManager(CredentialsCache credentialsCache, UserDetails... users) {
+        super(users);
+        this.credentialsCache = credentialsCache;
+    }
+
+    @Override
+    public void updateUser(UserDetails user) {
+        super.updateUser(user);
+        credentialsCache.invalidate(user.getUsername());
+    }
+
+    @Override
+    public void deleteUser(String username) {
+        super.deleteUser(username);
+        credentialsCache.invalidate(username);
+    }
+
+    @Override
+    public void changePassword(String oldPassword, String newPassword) {
+        super.changePassword(oldPassword, newPassword);
+        Authentication current = SecurityContextHolder.getContext().getAuthentication();
+        if (current != null) {
+            credentialsCache.invalidate(current.getName());
+        }
+    }
+}
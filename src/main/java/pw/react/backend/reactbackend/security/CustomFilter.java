@@ -1,12 +1,131 @@
 package pw.react.backend.reactbackend.security;
 
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerMapping;
+import pw.react.backend.reactbackend.metrics.RequestSqlStats;
+
 import javax.servlet.*;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Records per-route latency, in-flight requests per method and the SQL each request ran.
+ * It wraps the security chain, so time spent authenticating is included. The route is the pattern the
+ * dispatcher matched, read once the request has been served, so handlers are looked up only once.
+ * <p>
+ * SQL is counted on the request thread only. Asynchronous requests run most of theirs on other threads, so
+ * no SQL is recorded for them rather than a misleading near-zero.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 2)
 public class CustomFilter extends GenericFilter {
+    private static final String REQUESTS = "users.requests";
+    private static final String ACTIVE_REQUESTS = "users.requests.active";
+    private static final String SQL_STATEMENTS = "users.requests.sql.statements";
+    private static final String SQL_TIME = "users.requests.sql.time";
+    private static final String UNKNOWN_ROUTE = "UNKNOWN";
+
+    private final MeterRegistry registry;
+    private final Map<String, AtomicInteger> active = new ConcurrentHashMap<>();
+
+    public CustomFilter(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
     @Override
     public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse, FilterChain filterChain)
             throws IOException, ServletException {
-        filterChain.doFilter(servletRequest, servletResponse);
+        HttpServletRequest request = (HttpServletRequest) servletRequest;
+        HttpServletResponse response = (HttpServletResponse) servletResponse;
+        AtomicInteger inFlight = active.computeIfAbsent(request.getMethod(), method -> registry.gauge(
+                ACTIVE_REQUESTS, Tags.of("method", method), new AtomicInteger()));
+        RequestSqlStats sql = RequestSqlStats.open(
+                () -> origin(request.getAttribute(HandlerMapping.BEST_MATCHING_HANDLER_ATTRIBUTE)));
+        long start = System.nanoTime();
+        inFlight.incrementAndGet();
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            RequestSqlStats.close();
+            Tags tags = Tags.of("method", request.getMethod(), "route", route(request));
+            if (request.isAsyncStarted()) {
+                // Streaming responses finish on another thread; onComplete also follows timeouts and errors.
+                request.getAsyncContext().addListener(new AsyncListener() {
+                    @Override
+                    public void onComplete(AsyncEvent event) {
+                        record(tags, inFlight, response, start, null);
+                    }
+
+                    @Override
+                    public void onTimeout(AsyncEvent event) {
+                    }
+
+                    @Override
+                    public void onError(AsyncEvent event) {
+                    }
+
+                    @Override
+                    public void onStartAsync(AsyncEvent event) {
+                    }
+                });
+            } else {
+                record(tags, inFlight, response, start, sql);
+            }
+        }
+    }
+
+    /**
+     * @param sql statements run by the request, or null when they were not all seen
+     */
+    private void record(Tags tags, AtomicInteger inFlight, HttpServletResponse response, long start,
+                        RequestSqlStats sql) {
+        inFlight.decrementAndGet();
+        Timer.builder(REQUESTS)
+                .tags(tags)
+                .tag("status", Integer.toString(response.getStatus()))
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        if (sql == null) {
+            return;
+        }
+
+        DistributionSummary.builder(SQL_STATEMENTS)
+                .tags(tags)
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(registry)
+                .record(sql.getStatements());
+        Timer.builder(SQL_TIME)
+                .tags(tags)
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(registry)
+                .record(sql.getNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    private static String route(HttpServletRequest request) {
+        Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        return pattern == null ? UNKNOWN_ROUTE : pattern.toString();
+    }
+
+    private static String origin(Object handler) {
+        if (!(handler instanceof HandlerMethod)) {
+            return null;
+        }
+
+        HandlerMethod method = (HandlerMethod) handler;
+        return method.getBeanType().getSimpleName() + "#" + method.getMethod().getName();
     }
 }
@@ -1,11 +1,19 @@
 package pw.react.backend.reactbackend.security;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
 import org.springframework.security.config.annotation.authentication.builders.AuthenticationManagerBuilder;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.annotation.web.configuration.WebSecurityConfigurerAdapter;
+import org.springframework.security.config.http.SessionCreationPolicy;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.crypto.factory.PasswordEncoderFactories;
+import org.springframework.security.provisioning.UserDetailsManager;
+import org.springframework.security.web.authentication.www.BasicAuthenticationFilter;
+import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
 
 
 @Configuration
@@ -14,12 +22,27 @@ public class SpringSecurityConfig extends WebSecurityConfigurerAdapter {
     @Autowired
     private AuthenticationEntryPoint authenticationEntryPoint;
 
+    @Autowired
+    private CredentialsCache credentialsCache;
+
+    @Autowired
+    private TokenService tokenService;
+
     @Autowired
     public void configureGlobal(AuthenticationManagerBuilder auth) throws Exception {
-        auth.inMemoryAuthentication()
-                .withUser("john123")
-                .password("{noop}pass")
-                .roles("");
+        DaoAuthenticationProvider verifier = new DaoAuthenticationProvider();
+        verifier.setUserDetailsService(userDetailsManager());
+        verifier.setPasswordEncoder(PasswordEncoderFactories.createDelegatingPasswordEncoder());
+        auth.authenticationProvider(new CachingAuthenticationProvider(verifier, credentialsCache));
+    }
+
+    @Bean
+    public UserDetailsManager userDetailsManager() {
+        return new CredentialsInvalidatingUserDetailsManager(credentialsCache,
+                User.withUsername("john123")
+                        .password("{bcrypt}$2a$10$sAzXU9.S/B7FWc8B.ilrj.zZ1w9hSXY9tXi6lvdJTsGY1Mf0Tp.YS")
+                        .roles("")
+                        .build());
     }
 
     @Override
@@ -28,7 +51,12 @@ public class SpringSecurityConfig extends WebSecurityConfigurerAdapter {
                 .anyRequest().fullyAuthenticated()
                 .and()
                 .httpBasic()
-                .authenticationEntryPoint(authenticationEntryPoint);
+                .authenticationEntryPoint(authenticationEntryPoint)
+                .and()
+                .addFilterBefore(new TokenAuthenticationFilter(tokenService, authenticationEntryPoint,
+                                new AntPathRequestMatcher("/auth/token")),
+                        BasicAuthenticationFilter.class)
+                .sessionManagement().sessionCreationPolicy(SessionCreationPolicy.STATELESS);
         http.csrf().disable();
     }
-}
\ No newline at end of file
+}
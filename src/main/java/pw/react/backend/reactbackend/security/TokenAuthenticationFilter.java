@@ -0,0 +1,59 @@
+package pw.react.backend.reactbackend.security;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.web.util.matcher.RequestMatcher;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Authenticates requests carrying {@code Authorization: Bearer <token>} from the token alone.
+ * Requests without a bearer token are left to HTTP Basic, and so are requests for {@code tokenEndpoint}:
+ * a token must not be able to renew itself, or it would never expire and a revoked user would keep access.
+ */
+public class TokenAuthenticationFilter extends OncePerRequestFilter {
+    private static final String BEARER = "Bearer ";
+
+    private final TokenService tokenService;
+    private final AuthenticationEntryPoint authenticationEntryPoint;
+    private final RequestMatcher tokenEndpoint;
+
+    public TokenAuthenticationFilter(TokenService tokenService, AuthenticationEntryPoint authenticationEntryPoint,
+                                     RequestMatcher tokenEndpoint) {
+        this.tokenService = tokenService;
+        this.authenticationEntryPoint = authenticationEntryPoint;
+        this.tokenEndpoint = tokenEndpoint;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return tokenEndpoint.matches(request);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        String header = request.getHeader(HttpHeaders.AUTHORIZATION);
+        if (header == null || !header.regionMatches(true, 0, BEARER, 0, BEARER.length())) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+
+        try {
+            SecurityContextHolder.getContext().setAuthentication(
+                    tokenService.verify(header.substring(BEARER.length()).trim()));
+        } catch (AuthenticationException ex) {
+            SecurityContextHolder.clearContext();
+            authenticationEntryPoint.commence(request, response, ex);
+            return;
+        }
+
+        filterChain.doFilter(request, response);
+    }
+}
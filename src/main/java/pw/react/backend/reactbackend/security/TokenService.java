@@ -0,0 +1,151 @@
+package pw.react.backend.reactbackend.security;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Issues and verifies short-lived HS256 JSON Web Tokens that carry the principal and its roles, so a
+ * request bearing one is authenticated with a single HMAC and no lookup. Every node that shares
+ * {@code users.security.token.secret} accepts the tokens of the others.
+ */
+@Component
+public class TokenService {
+    private static final Logger log = LoggerFactory.getLogger(TokenService.class);
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final String HEADER = base64("{\"alg\":\"HS256\",\"typ\":\"JWT\"}".getBytes(StandardCharsets.UTF_8));
+    private static final TypeReference<Map<String, Object>> CLAIMS = new TypeReference<Map<String, Object>>() {
+    };
+
+    private final ObjectMapper objectMapper;
+    private final SecretKeySpec key;
+    private final ThreadLocal<Mac> macs;
+    private final long ttlSeconds;
+
+    @Autowired
+    public TokenService(ObjectMapper objectMapper,
+                        @Value("${users.security.token.secret:}") String secret,
+                        @Value("${users.security.token.ttl:15m}") Duration ttl) {
+        this.objectMapper = objectMapper;
+        this.key = new SecretKeySpec(secret(secret), ALGORITHM);
+        this.macs = ThreadLocal.withInitial(this::newMac);
+        this.ttlSeconds = ttl.getSeconds();
+    }
+
+    public long getTtlSeconds() {
+        return ttlSeconds;
+    }
+
+    public String issue(Authentication authentication) {
+        long now = System.currentTimeMillis() / 1000;
+        Map<String, Object> claims = new LinkedHashMap<>();
+        claims.put("sub", authentication.getName());
+        claims.put("roles", AuthorityUtils.authorityListToSet(authentication.getAuthorities()));
+        claims.put("iat", now);
+        claims.put("exp", now + ttlSeconds);
+
+        String unsigned;
+        try {
+            unsigned = HEADER + '.' + base64(objectMapper.writeValueAsBytes(claims));
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return unsigned + '.' + base64(sign(unsigned));
+    }
+
+    /**
+     * @throws BadCredentialsException when the token is malformed, was not signed with our secret or has expired
+     */
+    public Authentication verify(String token) {
+        int payloadStart = token.indexOf('.');
+        int signatureStart = token.lastIndexOf('.');
+        if (payloadStart < 0 || signatureStart <= payloadStart) {
+            throw new BadCredentialsException("Malformed token");
+        }
+
+        String unsigned = token.substring(0, signatureStart);
+        byte[] signature;
+        Map<String, Object> claims;
+        try {
+            signature = Base64.getUrlDecoder().decode(token.substring(signatureStart + 1));
+            if (!MessageDigest.isEqual(signature, sign(unsigned))
+                    || !HEADER.equals(token.substring(0, payloadStart))) {
+                throw new BadCredentialsException("Invalid token signature");
+            }
+            claims = objectMapper.readValue(Base64.getUrlDecoder().decode(
+                    token.substring(payloadStart + 1, signatureStart)), CLAIMS);
+        } catch (IllegalArgumentException | IOException ex) {
+            throw new BadCredentialsException("Malformed token", ex);
+        }
+
+        Object expiresAt = claims.get("exp");
+        if (!(expiresAt instanceof Number) || ((Number) expiresAt).longValue() <= System.currentTimeMillis() / 1000) {
+            throw new BadCredentialsException("Token expired");
+        }
+
+        List<GrantedAuthority> authorities = new ArrayList<>();
+        Object roles = claims.get("roles");
+        if (roles instanceof List) {
+            for (Object role : (List<?>) roles) {
+                authorities.addAll(AuthorityUtils.createAuthorityList(String.valueOf(role)));
+            }
+        }
+        return new UsernamePasswordAuthenticationToken(String.valueOf(claims.get("sub")), null, authorities);
+    }
+
+    private byte[] sign(String unsigned) {
+        return macs.get().doFinal(unsigned.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException ex) {
+            throw new IllegalStateException(ALGORITHM + " is not available", ex);
+        }
+    }
+
+    /**
+     * Without a configured secret tokens only work on the node that issued them and until it restarts.
+     */
+    private static byte[] secret(String secret) {
+        if (secret != null && !secret.isEmpty()) {
+            return Base64.getDecoder().decode(secret);
+        }
+
+        log.warn("users.security.token.secret is not set; using a random per-process secret");
+        byte[] random = new byte[32];
+        new SecureRandom().nextBytes(random);
+        return random;
+    }
+
+    private static String base64(byte[] bytes) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+}
@@ -0,0 +1,204 @@
+package pw.react.backend.reactbackend.services;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import pw.react.backend.reactbackend.repositories.UsersRepository;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Bloom filter over every existing login. A negative answer means the login is definitely free, so the
+ * database does not need to be asked; a positive one may be wrong at roughly
+ * {@code users.login-filter.false-positive-rate}.
+ * <p>
+ * The filter is built from the users table shortly after startup and rebuilt every
+ * {@code users.login-filter.rebuild-interval}, which clears bits left behind by deleted or renamed users.
+ * Logins created in between must be {@link #put added} by the caller. Until the first build completes
+ * every login is reported as possibly taken.
+ */
+@Component
+public class LoginBloomFilter implements MeterBinder {
+    private static final Logger log = LoggerFactory.getLogger(LoginBloomFilter.class);
+
+    private final UsersRepository usersRepository;
+    private final long expectedLogins;
+    private final double falsePositiveRate;
+
+    private volatile Bits current;
+    private volatile Bits building;
+
+    private final LongAdder negatives = new LongAdder();
+    private final LongAdder positives = new LongAdder();
+    private final LongAdder falsePositives = new LongAdder();
+
+    @Autowired
+    public LoginBloomFilter(UsersRepository usersRepository,
+                            @Value("${users.login-filter.expected-logins:1000000}") long expectedLogins,
+                            @Value("${users.login-filter.false-positive-rate:0.01}") double falsePositiveRate) {
+        this.usersRepository = usersRepository;
+        this.expectedLogins = expectedLogins;
+        this.falsePositiveRate = falsePositiveRate;
+    }
+
+    /**
+     * @return false when {@code login} is definitely not taken
+     */
+    public boolean mightContain(String login) {
+        Bits bits = current;
+        if (bits == null) {
+            return true;
+        }
+
+        boolean maybe = bits.mightContain(login);
+        (maybe ? positives : negatives).increment();
+        return maybe;
+    }
+
+    /**
+     * Records logins this filter reported as possibly taken that the database did not have.
+     */
+    public void falsePositives(long count) {
+        falsePositives.add(count);
+    }
+
+    public void put(String login) {
+        Bits bits = current;
+        if (bits != null) {
+            bits.put(login);
+        }
+        // Logins created while a rebuild streams the table may be missed by its query; add them to both.
+        Bits next = building;
+        if (next != null) {
+            next.put(login);
+        }
+    }
+
+    /**
+     * Reads the primary: a replica that lags behind would leave out logins that were just created.
+     */
+    @Scheduled(initialDelay = 0, fixedDelayString = "${users.login-filter.rebuild-interval:PT1H}")
+    @Transactional
+    public void rebuild() {
+        long start = System.nanoTime();
+        Bits next = new Bits(Math.max(expectedLogins, usersRepository.count()), falsePositiveRate);
+        building = next;
+        try (Stream<String> logins = usersRepository.streamLogins()) {
+            logins.forEach(next::put);
+            current = next;
+        } finally {
+            building = null;
+        }
+        log.info("Rebuilt login filter with {} bits in {} ms", next.size,
+                (System.nanoTime() - start) / 1_000_000);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("users.login-filter.checks", negatives, LongAdder::sum)
+                .tag("result", "negative")
+                .description("Logins known to be free without asking the database")
+                .register(registry);
+        FunctionCounter.builder("users.login-filter.checks", positives, LongAdder::sum)
+                .tag("result", "positive")
+                .register(registry);
+        FunctionCounter.builder("users.login-filter.checks", falsePositives, LongAdder::sum)
+                .tag("result", "false-positive")
+                .description("Positive answers the database then found to be free")
+                .register(registry);
+        Gauge.builder("users.login-filter.false-positive.rate", this, LoginBloomFilter::observedFalsePositiveRate)
+                .description("Share of free logins the filter reported as possibly taken")
+                .register(registry);
+        Gauge.builder("users.login-filter.expected-false-positive.rate", this,
+                filter -> filter.current == null ? 1 : filter.current.expectedFalsePositiveRate())
+                .register(registry);
+    }
+
+    private double observedFalsePositiveRate() {
+        long wrong = falsePositives.sum();
+        long free = wrong + negatives.sum();
+        return free == 0 ? 0 : (double) wrong / free;
+    }
+
+    private static final class Bits {
+        private final AtomicLongArray words;
+        private final long size;
+        private final int hashes;
+
+        Bits(long expected, double falsePositiveRate) {
+            long bits = (long) Math.ceil(-expected * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+            this.words = new AtomicLongArray((int) Math.min(Integer.MAX_VALUE, (Math.max(bits, 64) + 63) >>> 6));
+            this.size = words.length() * 64L;
+            this.hashes = Math.max(1, (int) Math.round((double) size / Math.max(expected, 1) * Math.log(2)));
+        }
+
+        void put(String login) {
+            long hash = hash(login);
+            long h1 = hash;
+            long h2 = mix(hash ^ 0x9E3779B97F4A7C15L);
+            for (int i = 0; i < hashes; i++) {
+                long bit = ((h1 + i * h2) & Long.MAX_VALUE) % size;
+                int word = (int) (bit >>> 6);
+                long mask = 1L << bit;
+                long value;
+                while (((value = words.get(word)) & mask) == 0 && !words.compareAndSet(word, value, value | mask)) {
+                    // Another bit of the same word was set concurrently; retry.
+                }
+            }
+        }
+
+        boolean mightContain(String login) {
+            long hash = hash(login);
+            long h1 = hash;
+            long h2 = mix(hash ^ 0x9E3779B97F4A7C15L);
+            for (int i = 0; i < hashes; i++) {
+                long bit = ((h1 + i * h2) & Long.MAX_VALUE) % size;
+                if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        double expectedFalsePositiveRate() {
+            long set = 0;
+            for (int i = 0; i < words.length(); i++) {
+                set += Long.bitCount(words.get(i));
+            }
+
+            return Math.pow((double) set / size, hashes);
+        }
+
+        /**
+         * 64-bit FNV-1a over the UTF-16 code units, finished with the MurmurHash3 mixer.
+         */
+        private static long hash(String login) {
+            long hash = 0xCBF29CE484222325L;
+            for (int i = 0; i < login.length(); i++) {
+                hash = (hash ^ login.charAt(i)) * 0x100000001B3L;
+            }
+
+            return mix(hash);
+        }
+
+        private static long mix(long hash) {
+            hash ^= hash >>> 33;
+            hash *= 0xFF51AFD7ED558CCDL;
+            hash ^= hash >>> 33;
+            hash *= 0xC4CEB9FE1A85EC53L;
+            hash ^= hash >>> 33;
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package pw.react.backend.reactbackend.services;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import pw.react.backend.reactbackend.models.UserView;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+
+/**
+ * Reactive view of {@link UsersService} for the {@code reactive} profile. JDBC still blocks, so every query
+ * runs on a fixed pool of {@code users.reactive.jdbc-threads} threads, matching the connection pool, instead
+ * of on the request thread. Parallel schedulers are meant for non-blocking work and are not used for it.
+ * <p>
+ * Spring MVC writes each row to the response on the thread that emits it, blocking while a slow client is not
+ * reading. Rows are therefore handed over to a separate elastic scheduler, so a JDBC thread is only held while
+ * a page is read, while every response being written holds a writer thread, as a servlet request would.
+ */
+@Service
+@Profile("reactive")
+public class ReactiveUsersService implements DisposableBean {
+    private final UsersService usersService;
+    private final Scheduler jdbc;
+    private final Scheduler writers = Schedulers.newElastic("users-stream");
+    private final int pageSize;
+
+    @Autowired
+    public ReactiveUsersService(UsersService usersService,
+                                @Value("${users.reactive.jdbc-threads:10}") int jdbcThreads,
+                                @Value("${users.reactive.page-size:500}") int pageSize) {
+        this.usersService = usersService;
+        this.jdbc = Schedulers.fromExecutorService(
+                Executors.newFixedThreadPool(jdbcThreads, new CustomizableThreadFactory("users-jdbc-")));
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Users with id greater than {@code afterId}, ordered by id, emitted on a writer thread. The next page is
+     * read while the current one is written and the one after only once the current page has been taken, so at
+     * most two pages of users are held per subscriber and a slow client keeps no JDBC thread busy.
+     */
+    public Flux<UserView> streamAfter(int afterId) {
+        return Flux.<List<UserView>, Integer>generate(() -> afterId, (after, sink) -> {
+            List<UserView> page = usersService.findPage(after, pageSize);
+            if (!page.isEmpty()) {
+                sink.next(page);
+            }
+            if (page.size() < pageSize) {
+                sink.complete();
+                return after;
+            }
+
+            return page.get(page.size() - 1).getId();
+        })
+                .subscribeOn(jdbc)
+                .publishOn(writers, 1)
+                .flatMapIterable(page -> page, 1);
+    }
+
+    @Override
+    public void destroy() {
+        jdbc.dispose();
+        writers.dispose();
+    }
+}
@@ -0,0 +1,408 @@
+package pw.react.backend.reactbackend.services;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import pw.react.backend.reactbackend.models.UserView;
+import pw.react.backend.reactbackend.repositories.UsersRepository;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Case-insensitive prefix index from every login, first name and last name to the user's id, for type-ahead
+ * lookups that must not reach the database.
+ * <p>
+ * Keys are kept in sorted arrays: a large base, a small array of recent additions and a sorted array of ids
+ * whose base keys are stale. Queries read an immutable snapshot of the three without locking or allocating.
+ * Writers copy the small arrays and fold them into a new base once {@code users.prefix-index.max-pending}
+ * changes have piled up. Equal keys share one string, so a common first name is stored once.
+ * <p>
+ * The index is built from the users table shortly after startup and rebuilt every
+ * {@code users.prefix-index.rebuild-interval}, which picks up users changed through other nodes. Changes made
+ * through this node must be {@link #put put} or {@link #remove removed} by the caller. Until the first build
+ * completes only those are found.
+ */
+@Component
+public class UserPrefixIndex implements MeterBinder {
+    private static final Logger log = LoggerFactory.getLogger(UserPrefixIndex.class);
+    private static final int[] NO_IDS = new int[0];
+
+    private final UsersRepository usersRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final int maxPending;
+
+    private volatile Snapshot snapshot = new Snapshot(Keys.EMPTY, Keys.EMPTY, NO_IDS);
+    /**
+     * Changes made while a rebuild streams the table, replayed on top of its result. Guarded by {@code this}.
+     */
+    private List<Runnable> changesDuringRebuild;
+
+    @Autowired
+    public UserPrefixIndex(UsersRepository usersRepository, PlatformTransactionManager transactionManager,
+                           @Value("${users.prefix-index.max-pending:4096}") int maxPending) {
+        this.usersRepository = usersRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.maxPending = maxPending;
+    }
+
+    /**
+     * Writes the ids of users whose login, first name or last name starts with {@code prefix}, ignoring case,
+     * to {@code ids}, in alphabetical order of the matching key and each id once.
+     *
+     * @return number of ids written, at most {@code ids.length}
+     */
+    public int find(String prefix, int[] ids) {
+        if (prefix.isEmpty()) {
+            return 0;
+        }
+
+        Snapshot current = snapshot;
+        Keys base = current.base;
+        Keys added = current.added;
+        int b = base.lowerBound(prefix);
+        int a = added.lowerBound(prefix);
+        int count = 0;
+        while (count < ids.length) {
+            boolean inBase = b < base.ids.length && startsWith(base.keys[b], prefix);
+            boolean inAdded = a < added.ids.length && startsWith(added.keys[a], prefix);
+            int id;
+            if (inBase && (!inAdded || base.compare(b, added, a) <= 0)) {
+                id = base.ids[b++];
+                if (Arrays.binarySearch(current.stale, id) >= 0) {
+                    continue;
+                }
+            } else if (inAdded) {
+                id = added.ids[a++];
+            } else {
+                break;
+            }
+            if (!contains(ids, count, id)) {
+                ids[count++] = id;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Replaces the keys of user {@code id}, if any, with the given ones.
+     */
+    public synchronized void put(int id, String login, String firstName, String lastName) {
+        Snapshot current = snapshot;
+        Keys added = current.added.without(id);
+        for (String value : new String[]{login, firstName, lastName}) {
+            String key = normalize(value);
+            if (!key.isEmpty()) {
+                added = added.with(key, id);
+            }
+        }
+        update(current.base, added, withId(current.stale, id));
+        if (changesDuringRebuild != null) {
+            changesDuringRebuild.add(() -> put(id, login, firstName, lastName));
+        }
+    }
+
+    public synchronized void remove(int id) {
+        Snapshot current = snapshot;
+        update(current.base, current.added.without(id), withId(current.stale, id));
+        if (changesDuringRebuild != null) {
+            changesDuringRebuild.add(() -> remove(id));
+        }
+    }
+
+    /**
+     * Reads the primary: a replica that lags behind would leave out users that were just created. The
+     * transaction is programmatic so that this bean is not proxied, which would allocate on every {@link #find}.
+     */
+    @Scheduled(initialDelay = 0, fixedDelayString = "${users.prefix-index.rebuild-interval:PT1H}")
+    public void rebuild() {
+        long start = System.nanoTime();
+        synchronized (this) {
+            changesDuringRebuild = new ArrayList<>();
+        }
+        Keys built = null;
+        try {
+            built = transactionTemplate.execute(status -> {
+                List<Key> keys = new ArrayList<>();
+                try (Stream<UserView> users = usersRepository.streamAll()) {
+                    users.forEach(user -> {
+                        addKey(keys, user.getLogin(), user.getId());
+                        addKey(keys, user.getFirstName(), user.getId());
+                        addKey(keys, user.getLastName(), user.getId());
+                    });
+                }
+                keys.sort(Key.ORDER);
+                return Keys.of(keys);
+            });
+        } finally {
+            synchronized (this) {
+                List<Runnable> changes = changesDuringRebuild;
+                changesDuringRebuild = null;
+                if (built != null) {
+                    snapshot = new Snapshot(built, Keys.EMPTY, NO_IDS);
+                    changes.forEach(Runnable::run);
+                }
+            }
+        }
+        log.info("Rebuilt user prefix index with {} keys in {} ms", built.ids.length,
+                (System.nanoTime() - start) / 1_000_000);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("users.prefix-index.keys", this, index -> index.snapshot.size())
+                .description("Logins and names in the user prefix index")
+                .register(registry);
+        Gauge.builder("users.prefix-index.pending", this, index -> index.snapshot.pending())
+                .description("Changes not yet folded into the base of the user prefix index")
+                .register(registry);
+    }
+
+    /**
+     * Caller holds the lock.
+     */
+    private void update(Keys base, Keys added, int[] stale) {
+        snapshot = added.ids.length + stale.length > maxPending
+                ? new Snapshot(Keys.merge(base, stale, added), Keys.EMPTY, NO_IDS)
+                : new Snapshot(base, added, stale);
+    }
+
+    private static void addKey(List<Key> keys, String value, int id) {
+        String key = normalize(value);
+        if (!key.isEmpty()) {
+            keys.add(new Key(key, id));
+        }
+    }
+
+    /**
+     * Lower-cases one char at a time, the same way {@link #startsWith} compares, and returns {@code value}
+     * itself when nothing changes.
+     */
+    private static String normalize(String value) {
+        if (value == null) {
+            return "";
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (Character.toLowerCase(value.charAt(i)) != value.charAt(i)) {
+                char[] chars = value.toCharArray();
+                for (int j = i; j < chars.length; j++) {
+                    chars[j] = Character.toLowerCase(chars[j]);
+                }
+                return new String(chars);
+            }
+        }
+
+        return value;
+    }
+
+    /**
+     * Compares a normalized key with the first chars of {@code prefix}, lower-cased as they are read.
+     *
+     * @return negative, zero or positive as {@code key} sorts before, starts with or sorts after {@code prefix}
+     */
+    private static int compareToPrefix(String key, String prefix) {
+        int length = Math.min(key.length(), prefix.length());
+        for (int i = 0; i < length; i++) {
+            int diff = key.charAt(i) - Character.toLowerCase(prefix.charAt(i));
+            if (diff != 0) {
+                return diff;
+            }
+        }
+
+        return key.length() < prefix.length() ? -1 : 0;
+    }
+
+    private static boolean startsWith(String key, String prefix) {
+        return compareToPrefix(key, prefix) == 0;
+    }
+
+    private static boolean contains(int[] ids, int count, int id) {
+        for (int i = 0; i < count; i++) {
+            if (ids[i] == id) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static int[] withId(int[] sorted, int id) {
+        int at = Arrays.binarySearch(sorted, id);
+        if (at >= 0) {
+            return sorted;
+        }
+
+        at = -at - 1;
+        int[] copy = new int[sorted.length + 1];
+        System.arraycopy(sorted, 0, copy, 0, at);
+        copy[at] = id;
+        System.arraycopy(sorted, at, copy, at + 1, sorted.length - at);
+        return copy;
+    }
+
+    private static final class Snapshot {
+        final Keys base;
+        final Keys added;
+        /**
+         * Sorted ids whose keys in {@code base} no longer apply.
+         */
+        final int[] stale;
+
+        Snapshot(Keys base, Keys added, int[] stale) {
+            this.base = base;
+            this.added = added;
+            this.stale = stale;
+        }
+
+        int size() {
+            return base.ids.length + added.ids.length;
+        }
+
+        int pending() {
+            return added.ids.length + stale.length;
+        }
+    }
+
+    private static final class Key {
+        static final Comparator<Key> ORDER = Comparator.<Key, String>comparing(key -> key.value)
+                .thenComparingInt(key -> key.id);
+
+        final String value;
+        final int id;
+
+        Key(String value, int id) {
+            this.value = value;
+            this.id = id;
+        }
+    }
+
+    /**
+     * Normalized keys and their ids, sorted by key and then id. Never modified once built.
+     */
+    private static final class Keys {
+        static final Keys EMPTY = new Keys(new String[0], NO_IDS);
+
+        final String[] keys;
+        final int[] ids;
+
+        Keys(String[] keys, int[] ids) {
+            this.keys = keys;
+            this.ids = ids;
+        }
+
+        static Keys of(List<Key> sorted) {
+            String[] keys = new String[sorted.size()];
+            int[] ids = new int[sorted.size()];
+            for (int i = 0; i < keys.length; i++) {
+                Key key = sorted.get(i);
+                keys[i] = i > 0 && key.value.equals(keys[i - 1]) ? keys[i - 1] : key.value;
+                ids[i] = key.id;
+            }
+
+            return new Keys(keys, ids);
+        }
+
+        /**
+         * {@code base} without the keys of {@code stale} ids, merged with {@code added}.
+         */
+        static Keys merge(Keys base, int[] stale, Keys added) {
+            String[] keys = new String[base.ids.length + added.ids.length];
+            int[] ids = new int[keys.length];
+            int b = 0;
+            int a = 0;
+            int n = 0;
+            while (b < base.ids.length || a < added.ids.length) {
+                String key;
+                int id;
+                if (a == added.ids.length || b < base.ids.length && base.compare(b, added, a) <= 0) {
+                    key = base.keys[b];
+                    id = base.ids[b++];
+                    if (Arrays.binarySearch(stale, id) >= 0) {
+                        continue;
+                    }
+                } else {
+                    key = added.keys[a];
+                    id = added.ids[a++];
+                }
+                keys[n] = n > 0 && key.equals(keys[n - 1]) ? keys[n - 1] : key;
+                ids[n++] = id;
+            }
+
+            return new Keys(Arrays.copyOf(keys, n), Arrays.copyOf(ids, n));
+        }
+
+        /**
+         * Index of the first key that does not sort before {@code prefix}.
+         */
+        int lowerBound(String prefix) {
+            int low = 0;
+            int high = ids.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (compareToPrefix(keys[mid], prefix) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+
+            return low;
+        }
+
+        int compare(int i, Keys other, int j) {
+            int diff = keys[i].compareTo(other.keys[j]);
+            return diff != 0 ? diff : Integer.compare(ids[i], other.ids[j]);
+        }
+
+        Keys with(String key, int id) {
+            int at = lowerBound(key);
+            while (at < ids.length && keys[at].equals(key) && ids[at] < id) {
+                at++;
+            }
+            String[] newKeys = new String[keys.length + 1];
+            int[] newIds = new int[ids.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, at);
+            System.arraycopy(ids, 0, newIds, 0, at);
+            newKeys[at] = key;
+            newIds[at] = id;
+            System.arraycopy(keys, at, newKeys, at + 1, keys.length - at);
+            System.arraycopy(ids, at, newIds, at + 1, ids.length - at);
+            return new Keys(newKeys, newIds);
+        }
+
+        Keys without(int id) {
+            int kept = 0;
+            for (int other : ids) {
+                if (other != id) {
+                    kept++;
+                }
+            }
+            if (kept == ids.length) {
+                return this;
+            }
+
+            String[] newKeys = new String[kept];
+            int[] newIds = new int[kept];
+            int n = 0;
+            for (int i = 0; i < ids.length; i++) {
+                if (ids[i] != id) {
+                    newKeys[n] = keys[i];
+                    newIds[n++] = ids[i];
+                }
+            }
+            return new Keys(newKeys, newIds);
+        }
+    }
+}
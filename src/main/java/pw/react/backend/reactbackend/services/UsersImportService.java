@@ -0,0 +1,231 @@
+package pw.react.backend.reactbackend.services;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.dataformat.csv.CsvMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvParser;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import pw.react.backend.reactbackend.errors.InvalidRequestException;
+import pw.react.backend.reactbackend.models.User;
+import pw.react.backend.reactbackend.models.UserBatchResult;
+import pw.react.backend.reactbackend.models.UserImportResult;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.validation.Validator;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Imports users from CSV. The calling thread parses and validates rows into fixed-size chunks
+ * while writer threads insert the chunks, each in its own transaction. A bounded queue between
+ * them keeps memory flat and makes the parser wait when the database falls behind.
+ */
+@Service
+public class UsersImportService {
+    private static final String LOGIN = "login";
+    private static final String FIRST_NAME = "first_name";
+    private static final String LAST_NAME = "last_name";
+    private static final String DATE_OF_BIRTH = "date_of_birth";
+    private static final String IS_ACTIVE = "is_active";
+
+    private static final List<User> END_OF_INPUT = Collections.emptyList();
+
+    private final ObjectReader csvReader = new CsvMapper()
+            .readerFor(String[].class)
+            .with(CsvParser.Feature.WRAP_AS_ARRAY)
+            .with(CsvParser.Feature.SKIP_EMPTY_LINES)
+            .with(CsvParser.Feature.TRIM_SPACES);
+
+    private UsersService usersService;
+    private Validator validator;
+    private ExecutorService writers;
+
+    @Value("${users.import.chunk-size:1000}")
+    private int chunkSize = 1000;
+
+    @Value("${users.import.queue-capacity:4}")
+    private int queueCapacity = 4;
+
+    @Value("${users.import.writers:2}")
+    private int writerCount = 2;
+
+    @Autowired
+    public UsersImportService(UsersService usersService, Validator validator) {
+        this.usersService = usersService;
+        this.validator = validator;
+    }
+
+    @PostConstruct
+    public void start() {
+        AtomicLong threads = new AtomicLong();
+        writers = Executors.newFixedThreadPool(writerCount, runnable -> {
+            Thread thread = new Thread(runnable, "users-import-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        writers.shutdownNow();
+    }
+
+    /**
+     * Reads a CSV with a header row naming the {@code login}, {@code first_name}, {@code last_name},
+     * {@code is_active} and optional {@code date_of_birth} columns. Rows that fail validation, repeat
+     * an earlier login or clash with an existing user are counted as rejected.
+     */
+    public UserImportResult importCsv(InputStream csv) throws IOException {
+        long start = System.nanoTime();
+        AtomicLong accepted = new AtomicLong();
+        AtomicLong rejected = new AtomicLong();
+        BlockingQueue<List<User>> queue = new ArrayBlockingQueue<>(queueCapacity);
+        List<Future<?>> running = new ArrayList<>(writerCount);
+        for (int i = 0; i < writerCount; i++) {
+            running.add(writers.submit(() -> write(queue, accepted, rejected)));
+        }
+
+        boolean completed = false;
+        try (MappingIterator<String[]> rows = csvReader.readValues(csv)) {
+            Map<String, Integer> columns = columns(rows);
+            Set<String> seenLogins = new HashSet<>();
+            List<User> chunk = new ArrayList<>(chunkSize);
+            while (rows.hasNextValue()) {
+                User user = toUser(rows.nextValue(), columns);
+                if (user == null || !seenLogins.add(user.getLogin())) {
+                    rejected.incrementAndGet();
+                    continue;
+                }
+
+                chunk.add(user);
+                if (chunk.size() == chunkSize) {
+                    enqueue(queue, chunk, running);
+                    chunk = new ArrayList<>(chunkSize);
+                }
+            }
+            if (!chunk.isEmpty()) {
+                enqueue(queue, chunk, running);
+            }
+            for (int i = 0; i < writerCount; i++) {
+                enqueue(queue, END_OF_INPUT, running);
+            }
+            completed = true;
+        } finally {
+            if (!completed) {
+                queue.clear();
+                running.forEach(writer -> writer.cancel(true));
+            }
+        }
+        awaitWriters(running);
+
+        long durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        return new UserImportResult(accepted.get(), rejected.get(), durationMillis);
+    }
+
+    private Void write(BlockingQueue<List<User>> queue, AtomicLong accepted, AtomicLong rejected)
+            throws InterruptedException {
+        List<User> chunk;
+        while ((chunk = queue.take()) != END_OF_INPUT) {
+            for (UserBatchResult result : usersService.saveAll(chunk)) {
+                if (result.getStatus() == UserBatchResult.Status.CREATED) {
+                    accepted.incrementAndGet();
+                } else {
+                    rejected.incrementAndGet();
+                }
+            }
+        }
+
+        return null;
+    }
+
+    private void enqueue(BlockingQueue<List<User>> queue, List<User> chunk, List<Future<?>> running)
+            throws IOException {
+        try {
+            while (!queue.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+                // A writer only finishes early when it failed; stop parsing instead of waiting forever.
+                for (Future<?> writer : running) {
+                    if (writer.isDone()) {
+                        awaitWriters(Collections.singletonList(writer));
+                        throw new IllegalStateException("Import writer stopped unexpectedly");
+                    }
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Import interrupted", ex);
+        }
+    }
+
+    private void awaitWriters(List<Future<?>> running) throws IOException {
+        try {
+            for (Future<?> writer : running) {
+                writer.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Import interrupted", ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException("Import writer failed", cause);
+        }
+    }
+
+    private Map<String, Integer> columns(MappingIterator<String[]> rows) throws IOException {
+        if (!rows.hasNextValue()) {
+            throw new InvalidRequestException("Missing CSV header");
+        }
+
+        String[] header = rows.nextValue();
+        Map<String, Integer> columns = new HashMap<>();
+        for (int i = 0; i < header.length; i++) {
+            columns.put(header[i].toLowerCase(Locale.ROOT), i);
+        }
+        for (String required : Arrays.asList(LOGIN, FIRST_NAME, LAST_NAME, IS_ACTIVE)) {
+            if (!columns.containsKey(required)) {
+                throw new InvalidRequestException("Missing CSV column: " + required);
+            }
+        }
+
+        return columns;
+    }
+
+    /**
+     * @return the user described by {@code row}, or null when the row is malformed or fails validation
+     */
+    private User toUser(String[] row, Map<String, Integer> columns) {
+        String isActive = column(row, columns, IS_ACTIVE);
+        if (!"true".equalsIgnoreCase(isActive) && !"false".equalsIgnoreCase(isActive)) {
+            return null;
+        }
+
+        LocalDate dateOfBirth = null;
+        String date = column(row, columns, DATE_OF_BIRTH);
+        if (date != null && !date.isEmpty()) {
+            try {
+                dateOfBirth = LocalDate.parse(date);
+            } catch (DateTimeParseException ex) {
+                return null;
+            }
+        }
+
+        User user = new User().setAllDetails(column(row, columns, LOGIN), column(row, columns, FIRST_NAME),
+                column(row, columns, LAST_NAME), dateOfBirth, Boolean.parseBoolean(isActive));
+        return validator.validate(user).isEmpty() ? user : null;
+    }
+
+    private static String column(String[] row, Map<String, Integer> columns, String name) {
+        Integer index = columns.get(name);
+        return index == null || index >= row.length ? null : row[index];
+    }
+}
@@ -1,43 +1,553 @@
 package pw.react.backend.reactbackend.services;
 
+import org.hibernate.exception.ConstraintViolationException;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import pw.react.backend.reactbackend.errors.InvalidRequestException;
+import pw.react.backend.reactbackend.errors.PreconditionFailedException;
+import pw.react.backend.reactbackend.errors.UserAlreadyExistsException;
 import pw.react.backend.reactbackend.models.User;
+import pw.react.backend.reactbackend.models.UserBatchResult;
+import pw.react.backend.reactbackend.models.UserLookupResult;
+import pw.react.backend.reactbackend.models.UserPatch;
+import pw.react.backend.reactbackend.models.UserView;
 import pw.react.backend.reactbackend.repositories.UsersRepository;
+import pw.react.backend.reactbackend.security.CredentialsCache;
 
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.PersistenceException;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaUpdate;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Root;
+import javax.validation.Validator;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 @Service
 public class UsersService {
+    public static final String USERS_BY_ID = "usersById";
+    public static final String USERS_BY_LOGIN = "usersByLogin";
+    /**
+     * Shorter substrings have no trigram to look up.
+     */
+    static final int MIN_SUBSTRING_LENGTH = 3;
+
     private UsersRepository usersRepository;
+    private CacheManager cacheManager;
+    private CredentialsCache credentialsCache;
+    private LoginBloomFilter loginFilter;
+    private UserPrefixIndex prefixIndex;
+    private TransactionTemplate transactionTemplate;
+    private TransactionTemplate readOnlyTransaction;
+    private Validator validator;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Value("${spring.jpa.properties.hibernate.jdbc.batch_size:50}")
+    private int batchSize = 50;
+
+    @Value("${users.single-flight.enabled:true}")
+    private boolean singleFlight = true;
+
+    private final SingleFlight<Integer, User> byIdLoads = new SingleFlight<>();
+    private final SingleFlight<String, Optional<User>> byLoginLoads = new SingleFlight<>();
 
     @Autowired
-    public UsersService(UsersRepository usersRepository) {
+    public UsersService(UsersRepository usersRepository, CacheManager cacheManager,
+                        CredentialsCache credentialsCache, LoginBloomFilter loginFilter,
+                        UserPrefixIndex prefixIndex, PlatformTransactionManager transactionManager,
+                        Validator validator) {
         this.usersRepository = usersRepository;
+        this.cacheManager = cacheManager;
+        this.credentialsCache = credentialsCache;
+        this.loginFilter = loginFilter;
+        this.prefixIndex = prefixIndex;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.validator = validator;
+    }
+
+    /**
+     * Returns at most {@code limit} users with id greater than {@code afterId}, ordered by id.
+     */
+    @Transactional(readOnly = true)
+    public List<UserView> findPage(int afterId, int limit) {
+        return usersRepository.findViewsAfter(afterId, PageRequest.of(0, limit));
     }
 
-    public List<User> findAll() {
-        return usersRepository.findAll();
+    /**
+     * Returns at most {@code limit} users with id greater than {@code afterId}, ordered by id, whose login, first
+     * name or last name starts with, or with {@code substring} contains, {@code query}, ignoring case.
+     * <p>
+     * PostgreSQL answers prefixes from pattern btree indexes and substrings from trigram indexes. H2 has neither
+     * trigram nor expression indexes and walks the primary key until the page is full, which is only fit for the
+     * small tables it is used with.
+     *
+     * @throws InvalidRequestException when a substring query is shorter than a trigram
+     */
+    @Transactional(readOnly = true)
+    public List<UserView> search(String query, boolean substring, int afterId, int limit) {
+        if (query.isEmpty() || substring && query.length() < MIN_SUBSTRING_LENGTH) {
+            throw new InvalidRequestException("Query: '" + query + "', min length: "
+                    + (substring ? MIN_SUBSTRING_LENGTH : 1));
+        }
+
+        String escaped = query.toLowerCase(Locale.ROOT).replaceAll("[\\\\%_]", "\\\\$0");
+        String pattern = substring ? "%" + escaped + "%" : escaped + "%";
+        return usersRepository.searchViewsAfter(pattern, afterId, PageRequest.of(0, limit));
     }
 
-    public List<User> findByLogin(String login) {
-        return usersRepository.findByLogin(login);
+    /**
+     * Streams every user, ordered by id, to {@code consumer}. Users are read as {@link UserView}s, so neither
+     * the persistence context nor the second-level cache grows with the table.
+     *
+     * @return number of exported users
+     */
+    @Transactional(readOnly = true)
+    public long exportAll(Consumer<UserView> consumer) {
+        long count = 0;
+        try (Stream<UserView> users = usersRepository.streamAll()) {
+            for (UserView user : (Iterable<UserView>) users::iterator) {
+                consumer.accept(user);
+                ++count;
+            }
+        }
+
+        return count;
     }
 
+    /**
+     * The login cache only maps a login to an id; the user itself comes from the id cache. An entry left
+     * behind by a rename is detected here because the user it points to no longer has that login.
+     * Concurrent misses for the same login share one query, run in a read-only transaction so that it may be
+     * served by a replica.
+     */
+    public Optional<User> findByLogin(String login) {
+        Cache byLogin = cacheManager.getCache(USERS_BY_LOGIN);
+        Integer id = byLogin.get(login, Integer.class);
+        if (id != null) {
+            User user = findById(id);
+            if (user != null && login.equals(user.getLogin())) {
+                return Optional.of(user);
+            }
+            byLogin.evict(login);
+        }
+
+        Optional<User> result = singleFlight
+                ? byLoginLoads.load(login, () -> read(() -> usersRepository.findByLogin(login)))
+                : read(() -> usersRepository.findByLogin(login));
+        result.ifPresent(user -> {
+            cacheManager.getCache(USERS_BY_ID).put(user.getId(), user);
+            byLogin.put(login, user.getId());
+        });
+        return result;
+    }
+
+    /**
+     * Users handed out from here may be shared with other requests through the cache, or through a
+     * concurrent load of the same id, and must not be modified. Misses are read like in {@link #findByLogin}.
+     */
     public User findById(int id) {
-        return usersRepository.findById(id);
+        Cache byId = cacheManager.getCache(USERS_BY_ID);
+        User user = byId.get(id, User.class);
+        if (user == null) {
+            user = singleFlight
+                    ? byIdLoads.load(id, () -> read(() -> usersRepository.findById(id)))
+                    : read(() -> usersRepository.findById(id));
+            if (user != null) {
+                byId.put(id, user);
+            }
+        }
+
+        return user;
+    }
+
+    /**
+     * Resolves many ids at once: ids in the id cache are answered from it and the rest are loaded with a single
+     * query and cached. Like {@link #findById}, the returned users may be shared and must not be modified.
+     *
+     * @return users in the order their ids were first requested, and the ids without a user
+     */
+    public UserLookupResult findAllById(Collection<Integer> ids) {
+        Cache byId = cacheManager.getCache(USERS_BY_ID);
+        Map<Integer, User> found = new LinkedHashMap<>();
+        List<Integer> misses = new ArrayList<>();
+        for (Integer id : ids) {
+            if (!found.containsKey(id)) {
+                User user = byId.get(id, User.class);
+                found.put(id, user);
+                if (user == null) {
+                    misses.add(id);
+                }
+            }
+        }
+        if (!misses.isEmpty()) {
+            for (User user : read(() -> usersRepository.findByIdIn(misses))) {
+                found.put(user.getId(), user);
+                byId.put(user.getId(), user);
+            }
+        }
+
+        List<User> users = new ArrayList<>(found.size());
+        List<Integer> missing = new ArrayList<>();
+        found.forEach((id, user) -> {
+            if (user != null) {
+                users.add(user);
+            } else {
+                missing.add(id);
+            }
+        });
+        return new UserLookupResult(users, missing);
     }
 
+    /**
+     * Type-ahead lookup: at most {@code limit} users whose login, first name or last name starts with
+     * {@code prefix}, ignoring case, found in memory by {@link UserPrefixIndex} and then resolved like
+     * {@link #findAllById} and returned as views. Users deleted through other nodes since the last rebuild of the
+     * index are left out.
+     */
+    public List<UserView> suggest(String prefix, int limit) {
+        int[] ids = new int[limit];
+        int count = prefixIndex.find(prefix, ids);
+        List<Integer> found = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            found.add(ids[i]);
+        }
+
+        List<UserView> views = new ArrayList<>(count);
+        for (User user : findAllById(found).getFound()) {
+            views.add(UserView.of(user));
+        }
+        return views;
+    }
+
+    /**
+     * Inserts {@code user} in a single statement under a new id; the unique index on login rejects duplicates.
+     * An id set on {@code user} is ignored, so a create can never overwrite another user.
+     *
+     * @throws UserAlreadyExistsException when another user already has the same login
+     */
     public User save(User user) {
-        return usersRepository.save(user);
+        user.setId(0);
+        try {
+            User saved = usersRepository.saveAndFlush(user);
+            evict(saved.getId(), saved.getLogin());
+            remember(saved.getId(), saved.getLogin(), saved.getFirstName(), saved.getLastName());
+            return saved;
+        } catch (DataIntegrityViolationException ex) {
+            throw translate(ex, user.getLogin());
+        }
+    }
+
+    /**
+     * Creates every valid user whose login is neither taken nor repeated earlier in {@code users}, each under a
+     * new id. Users failing bean validation are reported as {@link UserBatchResult.Status#INVALID} and skipped.
+     * Logins the login filter reports as possibly taken are looked up with a single query, and inserts
+     * are flushed in JDBC batches.
+     * <p>
+     * The filter only knows the logins of its last rebuild and of this node's writes since, and another request
+     * may take a login after it was checked. When the unique login index rejects an insert, the batch is rolled
+     * back and retried once with every login looked up.
+     *
+     * @return one result per input user, in input order
+     */
+    public List<UserBatchResult> saveAll(List<User> users) {
+        Set<Integer> invalid = new HashSet<>();
+        for (int i = 0; i < users.size(); i++) {
+            User user = users.get(i);
+            if (user == null || !validator.validate(user).isEmpty()) {
+                invalid.add(i);
+            }
+        }
+
+        try {
+            return transactionTemplate.execute(status -> insertNew(users, invalid, true));
+        } catch (DataIntegrityViolationException | PersistenceException ex) {
+            if (!(translate(ex, null) instanceof UserAlreadyExistsException)) {
+                throw ex;
+            }
+        }
+
+        return transactionTemplate.execute(status -> insertNew(users, invalid, false));
+    }
+
+    private List<UserBatchResult> insertNew(List<User> users, Set<Integer> invalid, boolean useLoginFilter) {
+        Set<String> candidates = new HashSet<>();
+        for (int i = 0; i < users.size(); i++) {
+            User user = users.get(i);
+            if (invalid.contains(i)) {
+                continue;
+            }
+            // Ids sent by the client, or handed out to rolled-back inserts, would turn inserts into merges.
+            user.setId(0);
+            if (!useLoginFilter || loginFilter.mightContain(user.getLogin())) {
+                candidates.add(user.getLogin());
+            }
+        }
+        Set<String> taken = candidates.isEmpty() ? new HashSet<>() : usersRepository.findExistingLogins(candidates);
+        if (useLoginFilter) {
+            loginFilter.falsePositives(candidates.size() - taken.size());
+        }
+
+        List<UserBatchResult> results = new ArrayList<>(users.size());
+        Set<String> accepted = new HashSet<>();
+        int pending = 0;
+        for (int i = 0; i < users.size(); i++) {
+            User user = users.get(i);
+            if (invalid.contains(i)) {
+                results.add(UserBatchResult.rejected(i, user, UserBatchResult.Status.INVALID));
+            } else if (taken.contains(user.getLogin())) {
+                results.add(UserBatchResult.rejected(i, user, UserBatchResult.Status.ALREADY_EXISTS));
+            } else if (!accepted.add(user.getLogin())) {
+                results.add(UserBatchResult.rejected(i, user, UserBatchResult.Status.DUPLICATE_IN_REQUEST));
+            } else {
+                User saved = usersRepository.save(user);
+                remember(saved.getId(), saved.getLogin(), saved.getFirstName(), saved.getLastName());
+                results.add(UserBatchResult.created(i, saved));
+                if (++pending == batchSize) {
+                    entityManager.flush();
+                    entityManager.clear();
+                    pending = 0;
+                }
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Overwrites the user with the given id in a single UPDATE, without loading it first.
+     *
+     * @param expectedVersion version the caller last saw, or {@link UsersRepository#ANY_VERSION}
+     * @return false when there is no user with that id
+     * @throws UserAlreadyExistsException when another user already has the new login
+     * @throws PreconditionFailedException when the user exists but its version is not {@code expectedVersion}
+     */
+    public boolean update(int id, User user, long expectedVersion) {
+        String oldLogin = cachedLogin(id);
+        int updated;
+        try {
+            updated = usersRepository.updateById(id, user.getLogin(), user.getFirstName(), user.getLastName(),
+                    user.getDateOfBirth(), user.getIsActive(), expectedVersion);
+        } catch (DataIntegrityViolationException ex) {
+            throw translate(ex, user.getLogin());
+        }
+
+        evict(id, user.getLogin());
+        if (updated > 0) {
+            remember(id, user.getLogin(), user.getFirstName(), user.getLastName());
+        }
+        if (updated > 0 && !user.getIsActive()) {
+            forgetCredentials(oldLogin, user.getLogin());
+        }
+        return affected(updated, id, expectedVersion);
+    }
+
+    /**
+     * Writes only the fields set in {@code patch} in a single UPDATE, without loading the user first.
+     *
+     * @param expectedVersion version the caller last saw, or {@link UsersRepository#ANY_VERSION}
+     * @return false when there is no user with that id
+     * @throws UserAlreadyExistsException when another user already has the new login
+     * @throws PreconditionFailedException when the user exists but its version is not {@code expectedVersion}
+     */
+    @Transactional
+    public boolean patch(int id, UserPatch patch, long expectedVersion) {
+        CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        CriteriaUpdate<User> update = builder.createCriteriaUpdate(User.class);
+        Root<User> user = update.from(User.class);
+        if (patch.getLogin() != null) {
+            update.set(user.<String>get("login"), patch.getLogin());
+        }
+        if (patch.getFirstName() != null) {
+            update.set(user.<String>get("firstName"), patch.getFirstName());
+        }
+        if (patch.getLastName() != null) {
+            update.set(user.<String>get("lastName"), patch.getLastName());
+        }
+        if (patch.getDateOfBirth() != null) {
+            update.set(user.<LocalDate>get("dateOfBirth"), patch.getDateOfBirth());
+        }
+        if (patch.getIsActive() != null) {
+            update.set(user.<Boolean>get("isActive"), patch.getIsActive());
+        }
+        String oldLogin = cachedLogin(id);
+        Path<Long> version = user.get("version");
+        update.set(version, builder.sum(version, 1L));
+        if (expectedVersion == UsersRepository.ANY_VERSION) {
+            update.where(builder.equal(user.get("id"), id));
+        } else {
+            update.where(builder.equal(user.get("id"), id), builder.equal(version, expectedVersion));
+        }
+
+        int updated;
+        try {
+            updated = entityManager.createQuery(update).executeUpdate();
+        } catch (PersistenceException ex) {
+            throw translate(ex, patch.getLogin());
+        }
+
+        evict(id, patch.getLogin());
+        if (updated > 0 && (patch.getLogin() != null || patch.getFirstName() != null || patch.getLastName() != null)) {
+            // The prefix index needs every name of the user, not only the patched ones.
+            User patched = usersRepository.findById(id);
+            if (patched != null) {
+                remember(id, patched.getLogin(), patched.getFirstName(), patched.getLastName());
+            }
+        }
+        if (updated > 0 && Boolean.FALSE.equals(patch.getIsActive())) {
+            forgetCredentials(oldLogin, patch.getLogin());
+        }
+        return affected(updated, id, expectedVersion);
+    }
+
+    /**
+     * Deletes the user with the given id in a single DELETE, without loading it first.
+     *
+     * @param expectedVersion version the caller last saw, or {@link UsersRepository#ANY_VERSION}
+     * @return false when there is no user with that id
+     * @throws PreconditionFailedException when the user exists but its version is not {@code expectedVersion}
+     */
+    public boolean deleteById(int id, long expectedVersion) {
+        String login = cachedLogin(id);
+        int deleted = usersRepository.removeById(id, expectedVersion);
+        evict(id, null);
+        if (deleted > 0) {
+            afterCommit(() -> prefixIndex.remove(id));
+            forgetCredentials(login, null);
+        }
+        return affected(deleted, id, expectedVersion);
+    }
+
+    /**
+     * Tells a missing user from a version mismatch; the extra lookup only runs when nothing was written.
+     */
+    private boolean affected(int rows, int id, long expectedVersion) {
+        if (rows > 0) {
+            return true;
+        }
+        if (expectedVersion != UsersRepository.ANY_VERSION && usersRepository.findById(id) != null) {
+            throw new PreconditionFailedException("Id: " + id + ", version: " + expectedVersion);
+        }
+
+        return false;
+    }
+
+    SingleFlight<Integer, User> getByIdLoads() {
+        return byIdLoads;
+    }
+
+    SingleFlight<String, Optional<User>> getByLoginLoads() {
+        return byLoginLoads;
+    }
+
+    /**
+     * A login entry that still points at {@code id} under an old login is caught by {@link #findByLogin}.
+     */
+    private void evict(int id, String login) {
+        cacheManager.getCache(USERS_BY_ID).evict(id);
+        if (login != null) {
+            cacheManager.getCache(USERS_BY_LOGIN).evict(login);
+        }
+    }
+
+    /**
+     * Runs {@code query} in its own read-only transaction. Only the query runs in it; cache lookups and waiting
+     * for a concurrent load of the same key do not hold a transaction.
+     */
+    private <T> T read(Supplier<T> query) {
+        return readOnlyTransaction.execute(status -> query.get());
+    }
+
+    /**
+     * Teaches the login filter and the prefix index about a written user once the write is committed.
+     */
+    private void remember(int id, String login, String firstName, String lastName) {
+        afterCommit(() -> {
+            loginFilter.put(login);
+            prefixIndex.put(id, login, firstName, lastName);
+        });
     }
 
-    public void delete(User userToDelete) {
-        usersRepository.delete(userToDelete);
+    /**
+     * Runs {@code action} after the current transaction commits, or right away outside of one, so that
+     * in-memory indexes never hold users of a rolled-back write.
+     */
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    /**
+     * @return login of the cached user with the given id, or null when it is not cached
+     */
+    private String cachedLogin(int id) {
+        User cached = cacheManager.getCache(USERS_BY_ID).get(id, User.class);
+        return cached != null ? cached.getLogin() : null;
     }
 
-    public boolean exists(User user) {
-        List<User> result = usersRepository.findByLogin(user.getLogin());
-        return result != null && !result.isEmpty();
+    /**
+     * Drops the cached credentials of a user under its {@code oldLogin} and, after a rename, its {@code newLogin}.
+     * Writes made without loading the user may not know its old login; those drop every cached credential.
+     */
+    private void forgetCredentials(String oldLogin, String newLogin) {
+        if (oldLogin == null) {
+            credentialsCache.invalidateAll();
+            return;
+        }
+
+        credentialsCache.invalidate(oldLogin);
+        if (newLogin != null && !newLogin.equals(oldLogin)) {
+            credentialsCache.invalidate(newLogin);
+        }
+    }
+
+    /**
+     * @return {@link UserAlreadyExistsException} when {@code ex} was caused by the unique login index,
+     * otherwise {@code ex} itself
+     */
+    private static RuntimeException translate(RuntimeException ex, String login) {
+        if (ex.getCause() instanceof ConstraintViolationException) {
+            String constraint = ((ConstraintViolationException) ex.getCause()).getConstraintName();
+            if (constraint != null && constraint.toLowerCase(Locale.ROOT).contains(User.LOGIN_CONSTRAINT)) {
+                return new UserAlreadyExistsException("Login: " + login);
+            }
+        }
+
+        return ex;
     }
 }
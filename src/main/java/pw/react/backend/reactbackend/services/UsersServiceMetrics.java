@@ -0,0 +1,47 @@
+package pw.react.backend.reactbackend.services;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Publishes how many {@link UsersService} lookups ran a query ({@code result=leader}) and how many shared
+ * one already in flight ({@code result=coalesced}) as {@code users.single-flight.loads}, plus the
+ * coalesced share of all lookups as {@code users.single-flight.coalescing.ratio}.
+ */
+@Component
+public class UsersServiceMetrics implements MeterBinder {
+    private UsersService usersService;
+
+    @Autowired
+    public UsersServiceMetrics(UsersService usersService) {
+        this.usersService = usersService;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        bind(registry, "byId", usersService.getByIdLoads());
+        bind(registry, "byLogin", usersService.getByLoginLoads());
+    }
+
+    private static void bind(MeterRegistry registry, String name, SingleFlight<?, ?> loads) {
+        FunctionCounter.builder("users.single-flight.loads", loads, SingleFlight::getLeaders)
+                .tags("name", name, "result", "leader")
+                .register(registry);
+        FunctionCounter.builder("users.single-flight.loads", loads, SingleFlight::getFollowers)
+                .tags("name", name, "result", "coalesced")
+                .register(registry);
+        Gauge.builder("users.single-flight.coalescing.ratio", loads, UsersServiceMetrics::ratio)
+                .tag("name", name)
+                .register(registry);
+    }
+
+    private static double ratio(SingleFlight<?, ?> loads) {
+        long followers = loads.getFollowers();
+        long total = loads.getLeaders() + followers;
+        return total == 0 ? 0 : (double) followers / total;
+    }
+}
@@ -0,0 +1,20 @@
+-- User ids come from a pooled sequence (see User.id); the increment must match its allocationSize.
+CREATE SEQUENCE IF NOT EXISTS users_seq INCREMENT BY 50;
+-- Move the sequence past ids handed out by the previous hibernate_sequence. Never moves it backwards.
+SELECT setval('users_seq', m.max_id) FROM (SELECT MAX(id) AS max_id FROM users) m, users_seq s WHERE m.max_id >= s.last_value;
+-- Logins are unique; creates rely on this index instead of a separate existence check, and a duplicate is
+-- answered with 409. With continue-on-error the index is silently missing while duplicates exist; list them with
+-- SELECT login, count(*) FROM users GROUP BY login HAVING count(*) > 1;
+CREATE UNIQUE INDEX IF NOT EXISTS users_login_key ON users (login);
+-- Optimistic locking (see User.version).
+ALTER TABLE users ADD COLUMN IF NOT EXISTS version bigint NOT NULL DEFAULT 0;
+-- Case-insensitive prefix search (UsersRepository.searchViewsAfter): text_pattern_ops btrees turn
+-- lower(column) LIKE 'ab%' into a range scan in any collation, however short the prefix.
+CREATE INDEX IF NOT EXISTS users_login_prefix ON users (lower(login) text_pattern_ops);
+CREATE INDEX IF NOT EXISTS users_first_name_prefix ON users (lower(first_name) text_pattern_ops);
+CREATE INDEX IF NOT EXISTS users_last_name_prefix ON users (lower(last_name) text_pattern_ops);
+-- Case-insensitive substring search: trigram indexes serve lower(column) LIKE '%abc%'.
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+CREATE INDEX IF NOT EXISTS users_login_trgm ON users USING gin (lower(login) gin_trgm_ops);
+CREATE INDEX IF NOT EXISTS users_first_name_trgm ON users USING gin (lower(first_name) gin_trgm_ops);
+CREATE INDEX IF NOT EXISTS users_last_name_trgm ON users USING gin (lower(last_name) gin_trgm_ops);
@@ -1,14 +1,27 @@
 package pw.react.backend.reactbackend;
 
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.security.test.context.support.WithMockUser;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit4.SpringRunner;
@@ -17,17 +30,30 @@ import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 import org.springframework.web.context.WebApplicationContext;
 import pw.react.backend.reactbackend.models.User;
+import pw.react.backend.reactbackend.repositories.UsersRepository;
+import pw.react.backend.reactbackend.security.CustomFilter;
+import pw.react.backend.reactbackend.services.LoginBloomFilter;
+import pw.react.backend.reactbackend.services.UserPrefixIndex;
 
+import javax.persistence.EntityManagerFactory;
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Optional;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.not;
 import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.httpBasic;
 import static org.springframework.security.test.web.servlet.setup.SecurityMockMvcConfigurers.springSecurity;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 
@@ -35,6 +61,9 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
 @RunWith(SpringRunner.class)
 @SpringBootTest
 public class ITReactBackendApplicationTests {
+    private static final MediaType CBOR = MediaType.valueOf("application/cbor");
+    private static final MediaType SMILE = MediaType.valueOf("application/x-jackson-smile");
+
     @Autowired
     private WebApplicationContext context;
 
@@ -43,6 +72,27 @@ public class ITReactBackendApplicationTests {
     @Autowired
     private ObjectMapper objectMapper;
 
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private UsersRepository usersRepository;
+
+    @Autowired
+    private CustomFilter customFilter;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private LoginBloomFilter loginFilter;
+
+    @Autowired
+    private UserPrefixIndex prefixIndex;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
     private static List<User> users = Arrays.asList(
             new User().setAllDetails("wiczolekp", "przemek", "wiczolek", true),
             new User().setAllDetails("kaladin", "kaladin", "",
@@ -57,6 +107,7 @@ public class ITReactBackendApplicationTests {
     public void setUp() throws Exception {
         mockMvc = MockMvcBuilders
                 .webAppContextSetup(context)
+                .addFilters(customFilter)
                 .apply(springSecurity())
                 .build();
     }
@@ -95,6 +146,38 @@ public class ITReactBackendApplicationTests {
                 .andExpect(status().is2xxSuccessful());
     }
 
+    @WithMockUser
+    @Test
+    public void givenIdOfExistingUser_whenPostIsRequested_thenCreateNewUserInstead() throws Exception {
+        // given
+        MvcResult result = this.mockMvc.perform(post("/users/")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(new User().setAllDetails("kaladin", "a", "b", true))))
+                .andExpect(status().is2xxSuccessful())
+                .andReturn();
+        User existing = objectMapper.readValue(result.getResponse().getContentAsString(), User.class);
+        User intruder = new User().setAllDetails("shallan", "c", "d", true);
+        intruder.setId(existing.getId());
+        User batchIntruder = new User().setAllDetails("jasnah", "e", "f", true);
+        batchIntruder.setId(existing.getId());
+
+        // when
+        this.mockMvc.perform(post("/users/")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(intruder)))
+                .andExpect(status().is2xxSuccessful())
+                .andExpect(jsonPath("$.id").value(not(existing.getId())));
+        this.mockMvc.perform(post("/users/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(Collections.singletonList(batchIntruder))))
+                .andExpect(status().isOk());
+
+        // then
+        this.mockMvc.perform(get("/users/" + existing.getId()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.login").value("kaladin"));
+    }
+
     @WithMockUser
     @Test
     public void givenUser_whenGetIsRequested_thenReturnUserAndCorrectStatus() throws Exception {
@@ -140,6 +223,79 @@ public class ITReactBackendApplicationTests {
                 .content(objectMapper.writeValueAsString(user))).andExpect(status().is2xxSuccessful());
     }
 
+    @WithMockUser
+    @Test
+    public void givenUser_whenPatchIsRequested_thenUpdateOnlyGivenFields() throws Exception {
+        // given
+        MvcResult result = this.mockMvc.perform(post("/users/")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(users.get(2))))
+                .andExpect(status().is2xxSuccessful()).andReturn();
+        User user = objectMapper.readValue(result.getResponse().getContentAsString(), User.class);
+
+        // when
+        this.mockMvc.perform(patch("/users/" + user.getId())
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"firstName\": \"veil\"}"))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString("updated")));
+
+        // then
+        this.mockMvc.perform(get("/users/" + user.getId()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.firstName").value("veil"))
+                .andExpect(jsonPath("$.lastName").value(users.get(2).getLastName()));
+    }
+
+    @WithMockUser
+    @Test
+    public void givenNothing_whenPatchIsRequested_thenReturnErrorStatus() throws Exception {
+        this.mockMvc.perform(patch("/users/1")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"firstName\": \"veil\"}"))
+                .andExpect(status().isNotFound());
+    }
+
+    @WithMockUser
+    @Test
+    public void givenETag_whenConditionalRequestsAreIssued_thenHonourPreconditions() throws Exception {
+        // given
+        MvcResult created = this.mockMvc.perform(post("/users/")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(users.get(3))))
+                .andExpect(status().is2xxSuccessful()).andReturn();
+        User user = objectMapper.readValue(created.getResponse().getContentAsString(), User.class);
+        String etag = this.mockMvc.perform(get("/users/" + user.getId()))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        // when ... then
+        this.mockMvc.perform(get("/users/" + user.getId()).header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+
+        user.setFirstName("changed");
+        String next = this.mockMvc.perform(put("/users/" + user.getId())
+                .header(HttpHeaders.IF_MATCH, etag)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(user)))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        assertThat(next).isNotEqualTo(etag);
+
+        this.mockMvc.perform(put("/users/" + user.getId())
+                .header(HttpHeaders.IF_MATCH, etag)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(user)))
+                .andExpect(status().isPreconditionFailed());
+
+        this.mockMvc.perform(delete("/users/" + user.getId()).header(HttpHeaders.IF_MATCH, etag))
+                .andExpect(status().isPreconditionFailed());
+
+        this.mockMvc.perform(get("/users/" + user.getId()).header(HttpHeaders.IF_NONE_MATCH, next))
+                .andExpect(status().isNotModified());
+    }
+
     @WithMockUser
     @Test
     public void givenUser_whenDeleteIsRequested_thenReturnCorrectStatus() throws Exception {
@@ -157,6 +313,392 @@ public class ITReactBackendApplicationTests {
                 .andExpect(content().string((containsString("deleted"))));
     }
 
+    @WithMockUser
+    @Test
+    public void givenUsersBatch_whenBatchPostIsRequested_thenCreateOnlyNewLogins() throws Exception {
+        // given
+        this.mockMvc.perform(post("/users/")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(users.get(0))))
+                .andExpect(status().is2xxSuccessful());
+
+        // when ... then
+        this.mockMvc.perform(post("/users/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(users)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].status").value("ALREADY_EXISTS"))
+                .andExpect(jsonPath("$[1].status").value("CREATED"))
+                .andExpect(jsonPath("$[4].status").value("CREATED"))
+                .andExpect(jsonPath("$[4].id").isNumber());
+
+        this.mockMvc.perform(get("/users?login=" + users.get(4).getLogin()))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString(users.get(4).getLastName())));
+    }
+
+    @WithMockUser
+    @Test
+    public void givenUsers_whenSearchIsRequested_thenPageThroughMatchesIgnoringCase() throws Exception {
+        // given
+        this.mockMvc.perform(post("/users/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(users)))
+                .andExpect(status().isOk());
+
+        // when ... then
+        this.mockMvc.perform(get("/users/search?q=DA"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$[0].login").value(users.get(2).getLogin()))
+                .andExpect(jsonPath("$[1].login").value(users.get(4).getLogin()));
+        String cursor = this.mockMvc.perform(get("/users/search?q=din&substring=true&limit=1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].login").value(users.get(1).getLogin()))
+                .andReturn().getResponse().getHeader("X-Next-Cursor");
+        this.mockMvc.perform(get("/users/search?q=din&substring=true&limit=1&cursor=" + cursor))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist("X-Next-Cursor"))
+                .andExpect(jsonPath("$[0].login").value(users.get(3).getLogin()));
+        this.mockMvc.perform(get("/users/search?q=%25"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(0));
+    }
+
+    @WithMockUser
+    @Test
+    public void givenUsers_whenSuggestionsAreRequested_thenReturnPrefixMatchesFromIndex() throws Exception {
+        // given
+        this.mockMvc.perform(post("/users/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(users)))
+                .andExpect(status().isOk());
+
+        // when ... then
+        this.mockMvc.perform(get("/users/suggest?q=DA"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$[0].login").value(users.get(4).getLogin()))
+                .andExpect(jsonPath("$[1].login").value(users.get(2).getLogin()));
+        this.mockMvc.perform(get("/users/suggest?q=k&limit=1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].login").value(users.get(1).getLogin()));
+    }
+
+    @WithMockUser
+    @Test
+    public void givenIds_whenUsersAreLookedUp_thenReturnFoundAndMissingIds() throws Exception {
+        // given
+        List<Integer> ids = new ArrayList<>();
+        for (User user : users.subList(0, 2)) {
+            MvcResult result = this.mockMvc.perform(post("/users/")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .content(objectMapper.writeValueAsString(user)))
+                    .andExpect(status().is2xxSuccessful())
+                    .andReturn();
+            ids.add(objectMapper.readValue(result.getResponse().getContentAsString(), User.class).getId());
+        }
+        int unknown = ids.get(1) + 1000;
+
+        // when ... then
+        this.mockMvc.perform(get("/users?ids=" + ids.get(1) + "," + unknown + "," + ids.get(0)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.found[0].login").value(users.get(1).getLogin()))
+                .andExpect(jsonPath("$.found[1].login").value(users.get(0).getLogin()))
+                .andExpect(jsonPath("$.missing[0]").value(unknown));
+        this.mockMvc.perform(post("/users/lookup")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(Arrays.asList(unknown, ids.get(0)))))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.found.length()").value(1))
+                .andExpect(jsonPath("$.found[0].id").value(ids.get(0)))
+                .andExpect(jsonPath("$.missing[0]").value(unknown));
+    }
+
+    @WithMockUser
+    @Test
+    public void givenBinaryMediaTypes_whenUsersAreExchanged_thenNegotiateCborAndSmile() throws Exception {
+        // given
+        ObjectMapper smile = new ObjectMapper(new SmileFactory()).registerModule(new JavaTimeModule())
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        ObjectMapper cbor = new ObjectMapper(new CBORFactory());
+
+        // when
+        this.mockMvc.perform(post("/users/batch")
+                .contentType(SMILE)
+                .accept(SMILE)
+                .content(smile.writeValueAsBytes(users.subList(0, 3))))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(SMILE));
+        MvcResult result = this.mockMvc.perform(get("/users").accept(CBOR))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(CBOR))
+                .andReturn();
+
+        // then
+        JsonNode page = cbor.readTree(result.getResponse().getContentAsByteArray());
+        assertThat(page).extracting(user -> user.get("login").asText())
+                .containsExactly(users.get(0).getLogin(), users.get(1).getLogin(), users.get(2).getLogin());
+        // Dates are written as in JSON, not as the [year, month, day] arrays of Jackson's defaults.
+        assertThat(page.get(1).get("dateOfBirth").isTextual()).isTrue();
+        assertThat(page.get(1).get("dateOfBirth").asText()).isEqualTo(users.get(1).getDateOfBirth().toString());
+        this.mockMvc.perform(get("/users"))
+                .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON));
+    }
+
+    @WithMockUser
+    @Test
+    public void givenLoginUnknownToFilter_whenBatchPostIsRequested_thenRejectOnlyThatLogin() throws Exception {
+        // given
+        jdbcTemplate.update("insert into users (id, login, first_name, last_name, is_active, version) "
+                + "values (1000000, 'szeth', 'szeth', '', true, 0)");
+        assertThat(loginFilter.mightContain("szeth")).isFalse();
+
+        // when ... then
+        this.mockMvc.perform(post("/users/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(Arrays.asList(
+                        new User().setAllDetails("szeth", "szeth", "", true), users.get(1)))))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].status").value("ALREADY_EXISTS"))
+                .andExpect(jsonPath("$[1].status").value("CREATED"));
+        // The rolled-back first attempt left nothing behind in the prefix index.
+        assertThat(prefixIndex.find(users.get(1).getLogin(), new int[10])).isEqualTo(1);
+    }
+
+    @WithMockUser
+    @Test
+    public void givenInvalidRowInBatch_whenBatchPostIsRequested_thenRejectOnlyThatRow() throws Exception {
+        // when ... then
+        this.mockMvc.perform(post("/users/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(Arrays.asList(
+                        users.get(0), new User().setAllDetails(" ", null, "b", true), users.get(2)))))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].status").value("CREATED"))
+                .andExpect(jsonPath("$[1].status").value("INVALID"))
+                .andExpect(jsonPath("$[1].id").doesNotExist())
+                .andExpect(jsonPath("$[2].status").value("CREATED"));
+        this.mockMvc.perform(get("/users?login=" + users.get(2).getLogin()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].login").value(users.get(2).getLogin()));
+    }
+
+    @WithMockUser
+    @Test
+    public void givenCsvFile_whenImportIsRequested_thenCountAcceptedAndRejectedRows() throws Exception {
+        // given
+        this.mockMvc.perform(post("/users/")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(users.get(0))))
+                .andExpect(status().is2xxSuccessful());
+        String csv = "login,first_name,last_name,date_of_birth,is_active\n"
+                + "wiczolekp,przemek,wiczolek,,true\n"
+                + "kaladin,kaladin,,0100-10-01,true\n"
+                + "davars,shallan,davar,,true\n"
+                + "davars,shallan,davar,,false\n"
+                + ",nobody,,,true\n"
+                + "kholind,dalinar,kholin,not-a-date,true\n";
+        MockMultipartFile file = new MockMultipartFile("file", "users.csv", "text/csv", csv.getBytes());
+
+        // when ... then
+        this.mockMvc.perform(multipart("/users/import").file(file))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.accepted").value(2))
+                .andExpect(jsonPath("$.rejected").value(4));
+
+        this.mockMvc.perform(get("/users?login=" + users.get(1).getLogin()))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString(users.get(1).getFirstName())));
+    }
+
+    @WithMockUser
+    @Test
+    public void givenUsers_whenExportIsRequested_thenStreamOneJsonLinePerUser() throws Exception {
+        // given
+        for (User user : users.subList(0, 3)) {
+            this.mockMvc.perform(post("/users/")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .content(objectMapper.writeValueAsString(user)))
+                    .andExpect(status().is2xxSuccessful());
+        }
+        entityManagerFactory.getCache().evictAll();
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        // when
+        MvcResult result = this.mockMvc.perform(get("/users/export"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        result.getAsyncResult();
+        // What the container does once the body is written; MockMvc leaves it to the caller.
+        result.getRequest().getAsyncContext().complete();
+
+        // then
+        String content = result.getResponse().getContentAsString();
+        String[] lines = content.split("\n");
+        assertThat(content).endsWith("\n");
+        assertThat(lines).hasSize(3);
+        for (int i = 0; i < lines.length; i++) {
+            assertThat(objectMapper.readValue(lines[i], User.class).getLogin()).isEqualTo(users.get(i).getLogin());
+        }
+        assertThat(statistics.getSecondLevelCachePutCount()).isZero();
+        assertThat(meterRegistry.find("users.requests").tags("route", "/users/export").timer()).isNotNull();
+        assertThat(meterRegistry.find("users.requests.sql.statements").tags("route", "/users/export").summary())
+                .isNull();
+    }
+
+    @Test
+    public void givenLoadedUser_whenLoadedAgain_thenNoSqlIsIssued() {
+        // given
+        User user = usersRepository.save(new User().setAllDetails("cached", "a", "b", true));
+        usersRepository.findById(user.getId());
+        usersRepository.findByLogin(user.getLogin());
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        // when
+        User byId = usersRepository.findById(user.getId());
+        Optional<User> byLogin = usersRepository.findByLogin(user.getLogin());
+
+        // then
+        assertThat(byId.getLogin()).isEqualTo(user.getLogin());
+        assertThat(byLogin).isPresent();
+        assertThat(statistics.getPrepareStatementCount()).isZero();
+        assertThat(statistics.getSecondLevelCacheHitCount()).isPositive();
+        assertThat(statistics.getQueryCacheHitCount()).isEqualTo(2);
+    }
+
+    @WithMockUser
+    @Test
+    public void givenRequest_whenServed_thenRecordLatencyAndSqlPerRoute() throws Exception {
+        // given
+        MvcResult result = this.mockMvc.perform(post("/users/")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(users.get(4))))
+                .andExpect(status().is2xxSuccessful()).andReturn();
+        User user = objectMapper.readValue(result.getResponse().getContentAsString(), User.class);
+
+        // when
+        this.mockMvc.perform(get("/users/" + user.getId())).andExpect(status().isOk());
+
+        // then
+        Timer requests = meterRegistry.find("users.requests")
+                .tags("method", "GET", "route", "/users/{id}", "status", "200").timer();
+        assertThat(requests).isNotNull();
+        assertThat(requests.count()).isPositive();
+        DistributionSummary statements = meterRegistry.find("users.requests.sql.statements")
+                .tags("method", "POST", "route", "/users/").summary();
+        assertThat(statements).isNotNull();
+        assertThat(statements.totalAmount()).isPositive();
+        assertThat(meterRegistry.find("users.requests.active").tags("method", "GET").gauge().value())
+                .isZero();
+    }
+
+    @Test
+    public void givenCachedCredentials_whenWrongPasswordIsUsed_thenReturnUnauthorized() throws Exception {
+        this.mockMvc.perform(get("/users").with(httpBasic("john123", "pass")))
+                .andExpect(status().isOk());
+        this.mockMvc.perform(get("/users").with(httpBasic("john123", "wrong")))
+                .andExpect(status().isUnauthorized());
+        this.mockMvc.perform(get("/users").with(httpBasic("john123", "pass")))
+                .andExpect(status().isOk());
+
+        assertThat(meterRegistry.find("cache.gets").tags("cache", "credentials", "result", "hit")
+                .functionCounter().count()).isPositive();
+    }
+
+    @Test
+    public void givenBasicCredentials_whenTokenIsIssued_thenBearerTokenAuthenticatesRequests() throws Exception {
+        MvcResult result = this.mockMvc.perform(post("/auth/token").with(httpBasic("john123", "pass")))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.tokenType").value("Bearer"))
+                .andReturn();
+        String token = objectMapper.readTree(result.getResponse().getContentAsString()).get("accessToken").asText();
+
+        this.mockMvc.perform(get("/users").header(HttpHeaders.AUTHORIZATION, "Bearer " + token))
+                .andExpect(status().isOk());
+        this.mockMvc.perform(get("/users").header(HttpHeaders.AUTHORIZATION, "Bearer " + token + "x"))
+                .andExpect(status().isUnauthorized());
+        this.mockMvc.perform(post("/auth/token"))
+                .andExpect(status().isUnauthorized());
+    }
+
+    @Test
+    public void givenBearerToken_whenTokenIsRequested_thenRequireBasicCredentials() throws Exception {
+        MvcResult result = this.mockMvc.perform(post("/auth/token").with(httpBasic("john123", "pass")))
+                .andExpect(status().isOk())
+                .andReturn();
+        String token = objectMapper.readTree(result.getResponse().getContentAsString()).get("accessToken").asText();
+
+        this.mockMvc.perform(post("/auth/token").header(HttpHeaders.AUTHORIZATION, "Bearer " + token))
+                .andExpect(status().isUnauthorized());
+    }
+
+    @Test
+    public void givenSingleFlight_whenMetricsAreRead_thenLeadersAndCoalescedLoadsArePublished() {
+        assertThat(meterRegistry.find("users.single-flight.loads").tags("name", "byId").functionCounters())
+                .hasSize(2);
+        assertThat(meterRegistry.find("users.single-flight.coalescing.ratio").tags("name", "byLogin").gauge())
+                .isNotNull();
+    }
+
+    @WithMockUser(username = "reader")
+    @Test
+    public void givenReadOnlyRequest_whenGetIsRequested_thenConnectionComesFromReplica() throws Exception {
+        // Written outside of any request, so the reader has not written recently.
+        jdbcTemplate.update("insert into users (id, login, first_name, last_name, is_active, version) "
+                + "values (1000001, 'lopen', 'lopen', '', true, 0), (1000003, 'lift', 'lift', '', true, 0)");
+
+        for (String uri : Arrays.asList("/users", "/users/1000001", "/users?login=lopen", "/users?ids=1000003")) {
+            double before = connections("replica");
+
+            this.mockMvc.perform(get(uri)).andExpect(status().isOk());
+
+            assertThat(connections("replica")).as(uri).isGreaterThan(before);
+        }
+    }
+
+    @WithMockUser(username = "writer")
+    @Test
+    public void givenRecentWrite_whenGetIsRequested_thenConnectionComesFromPrimary() throws Exception {
+        this.mockMvc.perform(post("/users/")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(new User().setAllDetails("writer", "a", "b", true))))
+                .andExpect(status().is2xxSuccessful());
+        jdbcTemplate.update("insert into users (id, login, first_name, last_name, is_active, version) "
+                + "values (1000002, 'rysn', 'rysn', '', true, 0)");
+        double before = connections("replica");
+
+        this.mockMvc.perform(get("/users")).andExpect(status().isOk());
+        this.mockMvc.perform(get("/users/1000002")).andExpect(status().isOk());
+        this.mockMvc.perform(get("/users?login=rysn")).andExpect(status().isOk());
+
+        assertThat(connections("replica")).isEqualTo(before);
+    }
+
+    @Test
+    public void givenRebuiltLoginFilter_whenExistingLoginIsChecked_thenItMightBeTaken() {
+        User user = usersRepository.save(new User().setAllDetails("filtered", "a", "b", true));
+
+        loginFilter.rebuild();
+
+        assertThat(loginFilter.mightContain(user.getLogin())).isTrue();
+        assertThat(meterRegistry.find("users.login-filter.checks").functionCounters()).hasSize(3);
+        assertThat(meterRegistry.find("users.login-filter.false-positive.rate").gauge()).isNotNull();
+        usersRepository.delete(user);
+    }
+
+    @Test
+    public void givenAsyncLogging_whenMetricsAreRead_thenQueueDepthAndDropsArePublished() {
+        assertThat(meterRegistry.find("logging.async.queue.depth").tags("appender", "ASYNC_FILE").gauge())
+                .isNotNull();
+        assertThat(meterRegistry.find("logging.async.dropped").tags("appender", "ASYNC_FILE").functionCounters())
+                .hasSize(2);
+    }
+
     @WithMockUser
     @Test
     public void givenNothing_whenGetForUserIsRequested_thenReturnErrorStatus() throws Exception {
@@ -194,4 +736,8 @@ public class ITReactBackendApplicationTests {
         this.mockMvc.perform(delete("/users/1"))
                 .andExpect(status().isNotFound());
     }
+
+    private double connections(String target) {
+        return meterRegistry.find("users.datasource.connections").tags("target", target).functionCounter().count();
+    }
 }
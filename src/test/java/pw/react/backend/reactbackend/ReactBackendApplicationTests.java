@@ -1,5 +1,16 @@
 package pw.react.backend.reactbackend;
 
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.AppenderBase;
+import ch.qos.logback.core.read.ListAppender;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import net.ttddyy.dsproxy.ExecutionInfo;
+import net.ttddyy.dsproxy.QueryInfo;
+import net.ttddyy.dsproxy.proxy.ParameterSetOperation;
+import org.hibernate.exception.ConstraintViolationException;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -7,24 +18,82 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Spy;
 import org.mockito.junit.MockitoJUnitRunner;
+import org.slf4j.LoggerFactory;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.jdbc.datasource.ConnectionProxy;
+import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.authority.AuthorityUtils;
 import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import pw.react.backend.reactbackend.config.ConnectionLimiter;
+import pw.react.backend.reactbackend.config.ReplicaRoutingDataSource;
 import pw.react.backend.reactbackend.controllers.UsersController;
 import pw.react.backend.reactbackend.errors.ErrorResponse;
+import pw.react.backend.reactbackend.errors.InvalidRequestException;
+import pw.react.backend.reactbackend.errors.PreconditionFailedException;
 import pw.react.backend.reactbackend.errors.UserAlreadyExistsException;
 import pw.react.backend.reactbackend.errors.UserNotFoundException;
+import pw.react.backend.reactbackend.metrics.MeteredAsyncAppender;
+import pw.react.backend.reactbackend.metrics.RequestSqlStats;
+import pw.react.backend.reactbackend.metrics.SlowQueryLog;
 import pw.react.backend.reactbackend.models.User;
+import pw.react.backend.reactbackend.models.UserBatchResult;
+import pw.react.backend.reactbackend.models.UserLookupResult;
+import pw.react.backend.reactbackend.models.UserPatch;
+import pw.react.backend.reactbackend.models.UserView;
 import pw.react.backend.reactbackend.repositories.UsersRepository;
+import pw.react.backend.reactbackend.security.CachingAuthenticationProvider;
+import pw.react.backend.reactbackend.security.CredentialsCache;
+import pw.react.backend.reactbackend.security.TokenService;
+import pw.react.backend.reactbackend.services.LoginBloomFilter;
+import pw.react.backend.reactbackend.services.ReactiveUsersService;
+import pw.react.backend.reactbackend.services.UserPrefixIndex;
+import pw.react.backend.reactbackend.services.UsersImportService;
 import pw.react.backend.reactbackend.services.UsersService;
-
+import reactor.core.Disposable;
+
+import javax.sql.DataSource;
+import javax.validation.Validation;
+import javax.validation.Validator;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.time.Duration;
 import java.time.LocalDate;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+import static org.assertj.core.api.Assertions.catchThrowable;
 import static org.assertj.core.api.BDDAssertions.then;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.willThrow;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @SpringBootTest
@@ -40,6 +109,27 @@ public class ReactBackendApplicationTests {
     @Mock
     private UsersRepository usersRepository;
 
+    @Spy
+    private CacheManager cacheManager = new ConcurrentMapCacheManager();
+
+    @Mock
+    private UsersImportService usersImportService;
+
+    @Mock
+    private CredentialsCache credentialsCache;
+
+    @Mock
+    private LoginBloomFilter loginFilter;
+
+    @Mock
+    private UserPrefixIndex prefixIndex;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    @Spy
+    private Validator validator = Validation.buildDefaultValidatorFactory().getValidator();
+
     private static User[] users = {
             new User().setAllDetails("wiczolekp", "przemek", "wiczolek", true),
             new User().setAllDetails("kaladin", "kaladin", "",
@@ -52,20 +142,49 @@ public class ReactBackendApplicationTests {
 
     @Before
     public void setUp() {
-        usersController = new UsersController(usersService);
-
+        usersController = new UsersController(usersService, usersImportService,
+                Jackson2ObjectMapperBuilder.json().build());
+        lenient().when(loginFilter.mightContain(any())).thenReturn(true);
     }
 
     @Test
     public void givenUsersFromRepository_whenGetUsersIsInvoked_thenReturnAllUsers() {
-        given(usersRepository.findAll()).willReturn(Arrays.asList(users));
+        List<UserView> views = Arrays.stream(users).map(UserView::of).collect(Collectors.toList());
+        given(usersRepository.findViewsAfter(eq(0), any(Pageable.class))).willReturn(views);
 
         // when
-        ResponseEntity<List<User>> response = usersController.getUsers(null);
+        ResponseEntity<List<UserView>> response = usersController.getUsers(null, null, null);
 
         then(response.getStatusCode()).isEqualTo(HttpStatus.OK);
         then(response.getBody()).hasSize(users.length);
-        then(response.getBody()).containsExactly(users);
+        then(response.getBody()).containsExactlyElementsOf(views);
+        then(response.getHeaders().containsKey(UsersController.NEXT_CURSOR_HEADER)).isFalse();
+    }
+
+    @Test
+    public void givenMoreUsersThanLimit_whenGetUsersIsInvoked_thenReturnPageAndNextCursor() {
+        // given
+        List<UserView> page = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) {
+            page.add(new UserView(i, "login" + i, "a", "b", null, true));
+        }
+        given(usersRepository.findViewsAfter(0, PageRequest.of(0, 3))).willReturn(page);
+        given(usersRepository.findViewsAfter(2, PageRequest.of(0, 3))).willReturn(page.subList(2, 3));
+
+        // when
+        ResponseEntity<List<UserView>> first = usersController.getUsers(null, null, 2);
+        String cursor = first.getHeaders().getFirst(UsersController.NEXT_CURSOR_HEADER);
+        ResponseEntity<List<UserView>> second = usersController.getUsers(null, cursor, 2);
+
+        then(first.getBody()).containsExactly(page.get(0), page.get(1));
+        then(cursor).isNotEmpty();
+        then(second.getBody()).containsExactly(page.get(2));
+        then(second.getHeaders().containsKey(UsersController.NEXT_CURSOR_HEADER)).isFalse();
+    }
+
+    @Test(expected = InvalidRequestException.class)
+    public void givenMalformedCursor_whenGetUsersIsInvoked_thenThrowException() {
+        usersController.getUsers(null, "not a cursor", null);
     }
 
     @Test
@@ -73,23 +192,60 @@ public class ReactBackendApplicationTests {
         // given
         String login = users[users.length - 1].getLogin();
         List<User> responseUsers = Arrays.stream(users).filter(user -> user.getLogin().equals(login)).collect(Collectors.toList());
-        given(usersRepository.findByLogin(login)).willReturn(responseUsers);
+        given(usersRepository.findByLogin(login)).willReturn(Optional.of(responseUsers.get(0)));
 
         // when
-        ResponseEntity<List<User>> response = usersController.getUsers(login);
+        ResponseEntity<List<UserView>> response = usersController.getUsers(login, null, null);
 
         then(response.getStatusCode()).isEqualTo(HttpStatus.OK);
         then(response.getBody()).hasSize(1);
-        then(response.getBody()).containsExactly(responseUsers.get(0));
+        then(response.getBody()).containsExactly(UserView.of(responseUsers.get(0)));
+    }
+
+    @Test
+    public void givenQueryWithWildcards_whenSearchUsersIsInvoked_thenMatchThemLiterally() {
+        // given
+        given(usersRepository.searchViewsAfter(any(), eq(0), any(Pageable.class)))
+                .willReturn(Collections.emptyList());
+
+        // when
+        usersController.searchUsers("A_b%", false, null, null);
+        usersController.searchUsers("50%", true, null, null);
+
+        verify(usersRepository).searchViewsAfter(eq("a\\_b\\%%"), eq(0), any(Pageable.class));
+        verify(usersRepository).searchViewsAfter(eq("%50\\%%"), eq(0), any(Pageable.class));
+    }
+
+    @Test(expected = InvalidRequestException.class)
+    public void givenShortSubstring_whenSearchUsersIsInvoked_thenThrowException() {
+        when(usersController.searchUsers("ab", true, null, null)).
+                thenThrow(InvalidRequestException.class);
+    }
+
+    @Test
+    public void givenUserView_whenSerialized_thenJsonMatchesEntity() throws Exception {
+        // given
+        User user = new User().setAllDetails("kaladin", "kaladin", "stormblessed", LocalDate.of(1990, 10, 1), true);
+        user.setId(3);
+        ObjectMapper timestamps = Jackson2ObjectMapperBuilder.json().build();
+        ObjectMapper isoDates = Jackson2ObjectMapperBuilder.json()
+                .featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS).build();
+
+        // when
+        String view = isoDates.writeValueAsString(UserView.of(user));
+
+        then(view).isEqualTo(isoDates.writeValueAsString(user));
+        then(view).contains("\"dateOfBirth\":\"1990-10-01\"");
+        then(timestamps.writeValueAsString(UserView.of(user))).isEqualTo(timestamps.writeValueAsString(user));
     }
 
     @Test(expected = UserNotFoundException.class)
     public void givenInvalidLogin_whenGetUsersWithLoginIsInvoked_thenThrowException() {
         // given
         String login = "abba";
-        given(usersRepository.findByLogin(login)).willReturn(null);
+        given(usersRepository.findByLogin(login)).willReturn(Optional.empty());
 
-        when(usersController.getUsers(login)).
+        when(usersController.getUsers(login, null, null)).
                 thenThrow(UserNotFoundException.class);
     }
 
@@ -107,6 +263,99 @@ public class ReactBackendApplicationTests {
         then(response.getBody()).isEqualToComparingFieldByField(responseUser);
     }
 
+    @Test
+    public void givenCachedUser_whenGetUserIsInvokedAgain_thenRepositoryIsQueriedOnce() {
+        // given
+        User user = new User().setAllDetails("cached", "a", "b", true);
+        user.setId(42);
+        given(usersRepository.findById(42)).willReturn(user);
+
+        // when
+        usersController.getUser(42);
+        ResponseEntity<User> response = usersController.getUser(42);
+
+        then(response.getBody()).isSameAs(user);
+        verify(usersRepository, times(1)).findById(42);
+    }
+
+    @Test
+    public void givenCachedUser_whenUserIsUpdated_thenOldLoginIsNoLongerServedFromCache() {
+        // given
+        User user = new User().setAllDetails("before", "a", "b", true);
+        user.setId(7);
+        User renamed = new User().setAllDetails("after", "a", "b", true);
+        renamed.setId(7);
+        given(usersRepository.findByLogin("before")).willReturn(Optional.of(user))
+                .willReturn(Optional.empty());
+        given(usersRepository.findById(7)).willReturn(renamed);
+        given(usersRepository.updateById(7, "after", "a", "b", null, true, UsersRepository.ANY_VERSION)).willReturn(1);
+        usersService.findByLogin("before");
+
+        // when
+        usersController.updateUser(7, null, renamed);
+
+        then(usersService.findByLogin("before")).isEmpty();
+        then(usersService.findById(7).getLogin()).isEqualTo("after");
+    }
+
+    @Test
+    public void givenPartlyCachedIds_whenLookupUsersIsInvoked_thenQueryOnlyMissesOnce() {
+        // given
+        User cached = new User().setAllDetails("cached", "a", "b", true);
+        cached.setId(1);
+        User stored = new User().setAllDetails("stored", "c", "d", true);
+        stored.setId(2);
+        given(usersRepository.findById(1)).willReturn(cached);
+        given(usersRepository.findByIdIn(Arrays.asList(2, 3))).willReturn(Collections.singletonList(stored));
+        usersService.findById(1);
+
+        // when
+        ResponseEntity<UserLookupResult> response = usersController.lookupUsers(Arrays.asList(2, 1, 3, 2));
+
+        then(response.getBody().getFound()).containsExactly(stored, cached);
+        then(response.getBody().getMissing()).containsExactly(3);
+        verify(usersRepository, times(1)).findByIdIn(any());
+        then(usersService.findById(2)).isSameAs(stored);
+    }
+
+    @Test(expected = InvalidRequestException.class)
+    public void givenTooManyIds_whenLookupUsersIsInvoked_thenThrowException() {
+        // given
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i <= 1000; i++) {
+            ids.add(i);
+        }
+
+        when(usersController.lookupUsers(ids)).
+                thenThrow(InvalidRequestException.class);
+    }
+
+    @Test
+    public void givenPrefixIndex_whenUsersChange_thenFindMatchingIdsInKeyOrder() {
+        // given
+        UserPrefixIndex index = new UserPrefixIndex(usersRepository, mock(PlatformTransactionManager.class), 2);
+        given(usersRepository.streamAll()).willReturn(Stream.of(
+                new UserView(1, "kaladin", "Kaladin", "", null, true),
+                new UserView(3, "davars", "Shallan", "Davar", null, true),
+                new UserView(5, "kholind", "Dalinar", "Kholin", null, true)));
+        index.rebuild();
+        int[] ids = new int[10];
+
+        // when ... then
+        then(Arrays.copyOf(ids, index.find("K", ids))).containsExactly(1, 5);
+        then(Arrays.copyOf(ids, index.find("da", ids))).containsExactly(5, 3);
+        then(Arrays.copyOf(ids, index.find("da", new int[1]))).hasSize(1);
+
+        index.put(6, "Kalak", "kalak", "");
+        index.put(1, "szeth", "Szeth", "");
+        then(Arrays.copyOf(ids, index.find("kal", ids))).containsExactly(6);
+        then(Arrays.copyOf(ids, index.find("SZ", ids))).containsExactly(1);
+
+        index.remove(5);
+        then(index.find("kh", ids)).isZero();
+        then(Arrays.copyOf(ids, index.find("d", ids))).containsExactly(3);
+    }
+
     @Test(expected = UserNotFoundException.class)
     public void givenInvalidUserId_whenGetUserByIdIsInvoked_thenThrowException() {
         // given
@@ -122,8 +371,7 @@ public class ReactBackendApplicationTests {
     public void givenNewUser_whenCreateUserIsInvoked_thenReturnSavedUser() {
         // given
         User user = new User().setAllDetails("login", "a", "b", false);
-        given(usersRepository.findByLogin("login")).willReturn(null);
-        given(usersRepository.save(user)).willReturn(user);
+        given(usersRepository.saveAndFlush(user)).willReturn(user);
 
         // when
         ResponseEntity<User> response = usersController.createUser(user);
@@ -132,16 +380,101 @@ public class ReactBackendApplicationTests {
         then(response.getBody()).isEqualToComparingFieldByField(user);
     }
 
+    @Test
+    public void givenNewUserWithId_whenCreateUserIsInvoked_thenIdIsIgnored() {
+        // given
+        User user = new User().setAllDetails("login", "a", "b", false);
+        user.setId(users[0].getId());
+        given(usersRepository.saveAndFlush(user)).willReturn(user);
+
+        // when
+        usersController.createUser(user);
+
+        then(user.getId()).isZero();
+        verify(usersRepository).saveAndFlush(user);
+    }
+
     @Test(expected = UserAlreadyExistsException.class)
     public void givenNewUserWithExistingLogin_whenCreateUserIsInvoked_thenThrowException() {
         // given
         User user = new User().setAllDetails(users[2].getLogin(), "a", "b", false);
-        given(usersRepository.findByLogin(users[2].getLogin())).willReturn(Collections.singletonList(users[2]));
+        given(usersRepository.saveAndFlush(user)).willThrow(new DataIntegrityViolationException("duplicate",
+                new ConstraintViolationException("duplicate", null, "USERS_LOGIN_KEY_INDEX_4")));
 
         when(usersController.createUser(user)).
                 thenThrow(UserAlreadyExistsException.class);
     }
 
+    @Test
+    public void givenUsersBatch_whenCreateUsersIsInvoked_thenReturnResultPerUser() {
+        // given
+        List<User> batch = Arrays.asList(
+                new User().setAllDetails("new1", "a", "b", true),
+                new User().setAllDetails(users[2].getLogin(), "a", "b", true),
+                new User().setAllDetails("new1", "c", "d", true),
+                new User().setAllDetails("new2", "a", "b", true));
+        given(usersRepository.findExistingLogins(any()))
+                .willReturn(Collections.singleton(users[2].getLogin()));
+        given(usersRepository.save(any(User.class))).willAnswer(invocation -> invocation.getArgument(0));
+
+        // when
+        ResponseEntity<List<UserBatchResult>> response = usersController.createUsers(batch);
+
+        then(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        then(response.getBody()).extracting(UserBatchResult::getStatus).containsExactly(
+                UserBatchResult.Status.CREATED,
+                UserBatchResult.Status.ALREADY_EXISTS,
+                UserBatchResult.Status.DUPLICATE_IN_REQUEST,
+                UserBatchResult.Status.CREATED);
+        verify(usersRepository, times(1)).findExistingLogins(any());
+        verify(usersRepository, times(2)).save(any(User.class));
+    }
+
+    @Test
+    public void givenLoginsUnknownToFilter_whenCreateUsersIsInvoked_thenExistingLoginsAreNotQueried() {
+        // given
+        List<User> batch = Arrays.asList(
+                new User().setAllDetails("fresh1", "a", "b", true),
+                new User().setAllDetails("fresh2", "a", "b", true));
+        given(loginFilter.mightContain(any())).willReturn(false);
+        given(usersRepository.save(any(User.class))).willAnswer(invocation -> invocation.getArgument(0));
+
+        // when
+        ResponseEntity<List<UserBatchResult>> response = usersController.createUsers(batch);
+
+        then(response.getBody()).extracting(UserBatchResult::getStatus)
+                .containsOnly(UserBatchResult.Status.CREATED);
+        verify(usersRepository, never()).findExistingLogins(any());
+        verify(loginFilter).put("fresh1");
+        verify(loginFilter).put("fresh2");
+    }
+
+    @Test
+    public void givenLoginTakenBehindFilter_whenCreateUsersIsInvoked_thenRetryWithLookupAndRejectIt() {
+        // given
+        User taken = new User().setAllDetails("taken", "a", "b", true);
+        User fresh = new User().setAllDetails("fresh", "a", "b", true);
+        given(loginFilter.mightContain(any())).willReturn(false);
+        given(usersRepository.save(any(User.class))).willAnswer(invocation -> {
+            User user = invocation.getArgument(0);
+            user.setId(7);
+            return user;
+        });
+        willThrow(new DataIntegrityViolationException("duplicate",
+                new ConstraintViolationException("duplicate", null, "USERS_LOGIN_KEY_INDEX_4")))
+                .willDoNothing()
+                .given(transactionManager).commit(any());
+        given(usersRepository.findExistingLogins(any())).willReturn(Collections.singleton("taken"));
+
+        // when
+        ResponseEntity<List<UserBatchResult>> response = usersController.createUsers(Arrays.asList(taken, fresh));
+
+        then(response.getBody()).extracting(UserBatchResult::getStatus)
+                .containsExactly(UserBatchResult.Status.ALREADY_EXISTS, UserBatchResult.Status.CREATED);
+        then(taken.getId()).isZero();
+        verify(usersRepository).findExistingLogins(new HashSet<>(Arrays.asList("taken", "fresh")));
+    }
+
     @Test
     public void givenUpdatedUser_whenUpdateUserIsInvoked_thenReturnUpdatedUser() {
         // given
@@ -149,27 +482,96 @@ public class ReactBackendApplicationTests {
                 users[0].getDateOfBirth(), false);
         int id = users[0].getId();
         updatedUser.setId(id);
-        given(usersRepository.findById(id)).willReturn(users[0]);
-        given(usersRepository.save(users[0])).willReturn(users[0]);
+        given(usersRepository.updateById(id, "login", users[0].getFirstName(), "b",
+                users[0].getDateOfBirth(), false, UsersRepository.ANY_VERSION)).willReturn(1);
 
         // when
-        ResponseEntity<User> response = usersController.updateUser(id, updatedUser);
+        ResponseEntity<User> response = usersController.updateUser(id, null, updatedUser);
 
         then(response.getStatusCode()).isEqualTo(HttpStatus.OK);
         then(response.getBody()).isEqualToComparingFieldByField(updatedUser);
+        verify(credentialsCache).invalidateAll();
+    }
+
+    @Test
+    public void givenCachedUser_whenUserIsRenamedAndDeactivated_thenCredentialsOfBothLoginsAreForgotten() {
+        // given
+        User user = new User().setAllDetails("before", "a", "b", true);
+        user.setId(7);
+        User deactivated = new User().setAllDetails("after", "a", "b", false);
+        given(usersRepository.findById(7)).willReturn(user);
+        given(usersRepository.updateById(7, "after", "a", "b", null, false, UsersRepository.ANY_VERSION))
+                .willReturn(1);
+        usersService.findById(7);
+
+        // when
+        usersController.updateUser(7, null, deactivated);
+
+        verify(credentialsCache).invalidate("before");
+        verify(credentialsCache).invalidate("after");
+        verify(credentialsCache, never()).invalidateAll();
     }
 
     @Test
     public void givenUserId_whenDeleteUserIsInvoked_thenReturnValidResponse() {
         // given
         int id = users[1].getId();
-        given(usersRepository.findById(id)).willReturn(users[1]);
+        given(usersRepository.removeById(id, UsersRepository.ANY_VERSION)).willReturn(1);
 
         // when
-        ResponseEntity<Map<String, Boolean>> response = usersController.deleteUser(id);
+        ResponseEntity<Map<String, Boolean>> response = usersController.deleteUser(id, null);
 
         then(response.getStatusCode()).isEqualTo(HttpStatus.OK);
         then(response.getBody()).containsExactly(new AbstractMap.SimpleEntry<>("deleted", Boolean.TRUE));
+        verify(usersRepository, never()).findById(id);
+    }
+
+    @Test
+    public void givenMissingUser_whenDeleteUserIsInvoked_thenCachedCredentialsAreKept() {
+        // given
+        given(usersRepository.removeById(42, UsersRepository.ANY_VERSION)).willReturn(0);
+
+        // when
+        boolean deleted = usersService.deleteById(42, UsersRepository.ANY_VERSION);
+
+        then(deleted).isFalse();
+        verify(credentialsCache, never()).invalidateAll();
+    }
+
+    @Test(expected = UserNotFoundException.class)
+    public void givenInvalidUserId_whenUpdateUserIsInvoked_thenThrowException() {
+        // given
+        User user = new User().setAllDetails("login", "a", "b", false);
+        given(usersRepository.updateById(-1, "login", "a", "b", null, false, UsersRepository.ANY_VERSION)).willReturn(0);
+
+        usersController.updateUser(-1, null, user);
+    }
+
+    @Test(expected = PreconditionFailedException.class)
+    public void givenStaleETag_whenUpdateUserIsInvoked_thenThrowException() {
+        // given
+        User user = new User().setAllDetails("login", "a", "b", false);
+        given(usersRepository.updateById(3, "login", "a", "b", null, false, 4L)).willReturn(0);
+        given(usersRepository.findById(3)).willReturn(user);
+
+        usersController.updateUser(3, "\"4\"", user);
+    }
+
+    @Test
+    public void givenCurrentETag_whenUpdateUserIsInvoked_thenReturnNextETag() {
+        // given
+        User user = new User().setAllDetails("login", "a", "b", false);
+        given(usersRepository.updateById(3, "login", "a", "b", null, false, 4L)).willReturn(1);
+
+        // when
+        ResponseEntity<User> response = usersController.updateUser(3, "\"4\"", user);
+
+        then(response.getHeaders().getETag()).isEqualTo("\"5\"");
+    }
+
+    @Test(expected = InvalidRequestException.class)
+    public void givenEmptyPatch_whenPatchUserIsInvoked_thenThrowException() {
+        usersController.patchUser(1, null, new UserPatch());
     }
 
     @Test
@@ -198,4 +600,319 @@ public class ReactBackendApplicationTests {
         then(body.getMessage()).isEqualTo("msg");
         then(body.getCode()).isEqualTo(HttpStatus.BAD_REQUEST.value());
     }
+
+    @Test
+    public void givenSlowStatement_whenAfterQueryIsInvoked_thenLogParameterTypesButNotValues() throws Exception {
+        // given
+        ListAppender<ILoggingEvent> appender = new ListAppender<>();
+        appender.start();
+        Logger logger = (Logger) LoggerFactory.getLogger(SlowQueryLog.LOGGER);
+        logger.addAppender(appender);
+        SlowQueryLog slowQueryLog = new SlowQueryLog(Duration.ofMillis(100), 0);
+        QueryInfo query = new QueryInfo("select * from users where login = ?");
+        query.getParametersList().add(Collections.singletonList(new ParameterSetOperation(
+                PreparedStatement.class.getMethod("setString", int.class, String.class), new Object[]{1, "kaladin"})));
+        ExecutionInfo fast = new ExecutionInfo();
+        fast.setElapsedTime(99);
+        ExecutionInfo slow = new ExecutionInfo();
+        slow.setElapsedTime(100);
+
+        // when
+        try {
+            RequestSqlStats.open(() -> "UsersController#getUsers");
+            slowQueryLog.afterQuery(fast, Collections.singletonList(query));
+            slowQueryLog.afterQuery(slow, Collections.singletonList(query));
+        } finally {
+            RequestSqlStats.close();
+            logger.detachAppender(appender);
+        }
+
+        then(appender.list).hasSize(1);
+        String message = appender.list.get(0).getFormattedMessage();
+        then(message).contains("elapsedMs=100", "origin=UsersController#getUsers", "params=[String]",
+                "sql=\"select * from users where login = ?\"");
+        then(message).doesNotContain("kaladin");
+    }
+
+    @Test
+    public void givenFullLoggingQueue_whenEventsAreAppended_thenDropAndCountThemWithoutBlocking() throws Exception {
+        // given
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        LoggerContext context = new LoggerContext();
+        AppenderBase<ILoggingEvent> slowDisk = new AppenderBase<ILoggingEvent>() {
+            @Override
+            protected void append(ILoggingEvent event) {
+                writing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        slowDisk.setContext(context);
+        slowDisk.start();
+        MeteredAsyncAppender appender = new MeteredAsyncAppender();
+        appender.setContext(context);
+        appender.setQueueSize(2);
+        appender.setDiscardingThreshold(2);
+        appender.setDiscardLevel("INFO");
+        appender.addAppender(slowDisk);
+        appender.start();
+        Logger logger = context.getLogger("test");
+        logger.addAppender(appender);
+
+        // when
+        try {
+            logger.warn("being written");
+            writing.await();
+            logger.warn("queued");
+            logger.info("discarded");
+            logger.warn("queued");
+            logger.error("rejected");
+        } finally {
+            release.countDown();
+            appender.stop();
+        }
+
+        then(appender.getDiscarded()).isEqualTo(1);
+        then(appender.getRejected()).isEqualTo(1);
+    }
+
+    @Test
+    public void givenFullLoggingQueue_whenThreadsAppendConcurrently_thenCountEveryDroppedEvent() throws Exception {
+        // given
+        int threads = 8;
+        int eventsPerThread = 1000;
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        LoggerContext context = new LoggerContext();
+        AppenderBase<ILoggingEvent> slowDisk = new AppenderBase<ILoggingEvent>() {
+            @Override
+            protected void append(ILoggingEvent event) {
+                writing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        slowDisk.setContext(context);
+        slowDisk.start();
+        MeteredAsyncAppender appender = new MeteredAsyncAppender();
+        appender.setContext(context);
+        appender.setQueueSize(16);
+        appender.setDiscardingThreshold(0);
+        appender.addAppender(slowDisk);
+        appender.start();
+        Logger logger = context.getLogger("test");
+        logger.addAppender(appender);
+        ExecutorService clients = Executors.newFixedThreadPool(threads);
+        CyclicBarrier start = new CyclicBarrier(threads);
+
+        // when
+        try {
+            logger.warn("being written");
+            writing.await();
+            List<Future<?>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                results.add(clients.submit(() -> {
+                    start.await();
+                    for (int j = 0; j < eventsPerThread; j++) {
+                        logger.warn("queued or rejected");
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } finally {
+            clients.shutdownNow();
+            release.countDown();
+            appender.stop();
+        }
+
+        then(appender.getRejected()).isEqualTo(threads * eventsPerThread - 16);
+    }
+
+    @Test
+    public void givenVerifiedCredentials_whenAuthenticateIsInvokedAgain_thenDelegateIsNotCalled() {
+        // given
+        AuthenticationProvider verifier = mock(AuthenticationProvider.class);
+        given(verifier.authenticate(any())).willAnswer(invocation -> {
+            Authentication login = invocation.getArgument(0);
+            if (!"pass".equals(login.getCredentials())) {
+                throw new BadCredentialsException("Bad credentials");
+            }
+            return new UsernamePasswordAuthenticationToken(login.getName(), null, Collections.emptyList());
+        });
+        CredentialsCache cache = new CredentialsCache(Duration.ofMinutes(1), 100);
+        CachingAuthenticationProvider provider = new CachingAuthenticationProvider(verifier, cache);
+
+        // when
+        provider.authenticate(new UsernamePasswordAuthenticationToken("john123", "pass"));
+        Authentication cached = provider.authenticate(new UsernamePasswordAuthenticationToken("john123", "pass"));
+        Throwable wrongPassword = catchThrowable(() ->
+                provider.authenticate(new UsernamePasswordAuthenticationToken("john123", "wrong")));
+        cache.invalidate("john123");
+        provider.authenticate(new UsernamePasswordAuthenticationToken("john123", "pass"));
+
+        then(cached.isAuthenticated()).isTrue();
+        then(cached.getName()).isEqualTo("john123");
+        then(wrongPassword).isInstanceOf(BadCredentialsException.class);
+        verify(verifier, times(3)).authenticate(any());
+    }
+
+    @Test
+    public void givenIssuedToken_whenVerifyIsInvoked_thenReturnPrincipalAndRolesWithoutLookup() {
+        // given
+        TokenService tokenService = new TokenService(Jackson2ObjectMapperBuilder.json().build(),
+                Base64.getEncoder().encodeToString(new byte[32]), Duration.ofMinutes(15));
+        String token = tokenService.issue(new UsernamePasswordAuthenticationToken("john123", null,
+                AuthorityUtils.createAuthorityList("ROLE_ADMIN")));
+        String tampered = token.substring(0, token.length() - 2) + (token.endsWith("A") ? "BB" : "AA");
+
+        // when
+        Authentication authentication = tokenService.verify(token);
+
+        then(authentication.getName()).isEqualTo("john123");
+        then(AuthorityUtils.authorityListToSet(authentication.getAuthorities())).containsExactly("ROLE_ADMIN");
+        then(catchThrowable(() -> tokenService.verify(tampered))).isInstanceOf(BadCredentialsException.class);
+    }
+
+    @Test(expected = BadCredentialsException.class)
+    public void givenExpiredToken_whenVerifyIsInvoked_thenThrowException() {
+        TokenService tokenService = new TokenService(Jackson2ObjectMapperBuilder.json().build(), "",
+                Duration.ofSeconds(-1));
+
+        tokenService.verify(tokenService.issue(new UsernamePasswordAuthenticationToken("john123", null)));
+    }
+
+    @Test
+    public void givenConcurrentCacheMisses_whenFindByIdIsInvoked_thenRepositoryIsQueriedOnce() throws Exception {
+        // given
+        int threads = 16;
+        CountDownLatch querying = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        given(usersRepository.findById(7)).willAnswer(invocation -> {
+            querying.countDown();
+            release.await();
+            return users[0];
+        });
+        ExecutorService clients = Executors.newFixedThreadPool(threads);
+        CyclicBarrier start = new CyclicBarrier(threads);
+
+        // when
+        List<Future<User>> results = new ArrayList<>();
+        try {
+            for (int i = 0; i < threads; i++) {
+                results.add(clients.submit(() -> {
+                    start.await();
+                    return usersService.findById(7);
+                }));
+            }
+            querying.await();
+            Thread.sleep(200);
+            release.countDown();
+            for (Future<User> result : results) {
+                then(result.get()).isSameAs(users[0]);
+            }
+        } finally {
+            clients.shutdownNow();
+        }
+
+        verify(usersRepository, times(1)).findById(7);
+    }
+
+    @Test
+    public void givenSlowSubscriber_whenUsersAreStreamed_thenNextPageIsReadOnlyOnDemand() {
+        // given
+        List<UserView> all = new ArrayList<>();
+        for (int i = 1; i <= 5; i++) {
+            all.add(new UserView(i, "stream" + i, "a", "b", null, true));
+        }
+        given(usersRepository.findViewsAfter(0, PageRequest.of(0, 2))).willReturn(all.subList(0, 2));
+        given(usersRepository.findViewsAfter(2, PageRequest.of(0, 2))).willReturn(all.subList(2, 4));
+        given(usersRepository.findViewsAfter(4, PageRequest.of(0, 2))).willReturn(all.subList(4, 5));
+        ReactiveUsersService reactiveUsersService = new ReactiveUsersService(usersService, 1, 2);
+
+        // when
+        Disposable slow = reactiveUsersService.streamAfter(0)
+                .subscribe(user -> {
+                }, error -> {
+                }, () -> {
+                }, subscription -> subscription.request(1));
+        // The next page is read ahead while the first one is written, but no further.
+        verify(usersRepository, timeout(1000)).findViewsAfter(2, PageRequest.of(0, 2));
+        verify(usersRepository, never()).findViewsAfter(eq(4), any(Pageable.class));
+        slow.dispose();
+        List<UserView> everything = reactiveUsersService.streamAfter(0).collectList().block();
+        String writer = reactiveUsersService.streamAfter(0).map(user -> Thread.currentThread().getName()).blockFirst();
+        reactiveUsersService.destroy();
+
+        then(everything).containsExactlyElementsOf(all);
+        then(writer).startsWith("users-stream");
+    }
+
+    @Test
+    public void givenReadOnlyTransaction_whenConnectionIsRequested_thenReplicasAreUsedRoundRobinUntilOneFails()
+            throws Exception {
+        // given
+        DataSource primary = mock(DataSource.class);
+        DataSource first = mock(DataSource.class);
+        DataSource second = mock(DataSource.class);
+        Connection primaryConnection = mock(Connection.class);
+        Connection firstConnection = mock(Connection.class);
+        Connection secondConnection = mock(Connection.class);
+        given(primary.getConnection()).willReturn(primaryConnection);
+        given(primary.getConnection("reporting", "secret")).willReturn(primaryConnection);
+        given(first.getConnection()).willReturn(firstConnection);
+        given(second.getConnection()).willReturn(secondConnection, secondConnection)
+                .willThrow(new SQLException("replica down"));
+        ReplicaRoutingDataSource routing = new ReplicaRoutingDataSource(primary, Arrays.asList(first, second),
+                Duration.ZERO);
+        TransactionSynchronizationManager.setActualTransactionActive(true);
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+
+        // when
+        List<Connection> connections = new ArrayList<>();
+        try {
+            for (int i = 0; i < 6; i++) {
+                connections.add(routing.getConnection());
+            }
+        } finally {
+            TransactionSynchronizationManager.setCurrentTransactionReadOnly(false);
+            TransactionSynchronizationManager.setActualTransactionActive(false);
+        }
+
+        then(connections).containsExactly(firstConnection, secondConnection, firstConnection, secondConnection,
+                firstConnection, primaryConnection);
+        then(routing.getConnection()).isSameAs(primaryConnection);
+        then(routing.getConnection("reporting", "secret")).isSameAs(primaryConnection);
+    }
+
+    @Test
+    public void givenAllPermitsInUse_whenConnectionIsRequested_thenCallerWaitsUntilOneIsClosed() throws Exception {
+        // given
+        DataSource pool = mock(DataSource.class);
+        Connection first = mock(Connection.class);
+        Connection second = mock(Connection.class);
+        given(pool.getConnection()).willReturn(first, second);
+        DataSource limited = new ConnectionLimiter(1, Duration.ofMillis(50)).wrap(pool);
+        Connection held = limited.getConnection();
+
+        // when
+        Throwable timedOut = catchThrowable(limited::getConnection);
+        held.close();
+        held.close();
+        Connection next = limited.getConnection();
+
+        then(timedOut).isInstanceOf(SQLTransientConnectionException.class);
+        then(((ConnectionProxy) next).getTargetConnection()).isSameAs(second);
+        then(catchThrowable(limited::getConnection)).isInstanceOf(SQLTransientConnectionException.class);
+        verify(first, times(1)).close();
+    }
 }